@@ -0,0 +1,115 @@
+package org.matsim.velbert.analysis;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.EventHandler;
+import org.matsim.core.network.NetworkUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays an event stream through each analysis handler. Besides the throughput of whole replays, JMH reports the
+ * secondary metric {@code events} in events per second. Allocation rates are reported by the gc profiler, which the
+ * jmh profile enables by default.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalysisHandlerBenchmark {
+
+    @Param({"test", "synthetic"})
+    public String stream;
+
+    @Param("100000")
+    public int syntheticPersons;
+
+    private Network network;
+    private Geometry area;
+    private List<Event> events;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class EventCounter {
+
+        public long events;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            events = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+
+        network = NetworkUtils.readNetwork(EventStreams.NETWORK);
+        events = stream.equals("test") ? EventStreams.read(EventStreams.TEST_EVENTS) : EventStreams.synthetic(syntheticPersons);
+
+        // count all links of the network
+        var envelope = new Envelope();
+        for (var node : network.getNodes().values()) {
+            envelope.expandToInclude(node.getCoord().getX(), node.getCoord().getY());
+        }
+        envelope.expandBy(1);
+        area = new GeometryFactory().toGeometry(envelope);
+    }
+
+    @Benchmark
+    public int tripEventHandler(EventCounter counter) {
+
+        var handler = new TripEventHandler(network);
+        replay(handler, counter);
+        return handler.getTrips().size();
+    }
+
+    /**
+     * The configuration used by the trip analyzer module during a run: trips are not stored but added to a cube by a
+     * listener.
+     */
+    @Benchmark
+    public long tripEventHandlerWithListener(EventCounter counter) {
+
+        var handler = new TripEventHandler(network, false);
+        var cube = new TripCube(null);
+        handler.addTripListener(cube::add);
+        replay(handler, counter);
+        return cube.getTotalCount();
+    }
+
+    @Benchmark
+    public int tripEventHandlerHW2(EventCounter counter) {
+
+        var handler = new TripEventHandlerHW2(network, area);
+        replay(handler, counter);
+        return handler.getLinkLeaveCounts().size();
+    }
+
+    @Benchmark
+    public int linkVolumeCube(EventCounter counter) {
+
+        var handler = new LinkVolumeCube(network, null);
+        replay(handler, counter);
+        return handler.getNumberOfBins();
+    }
+
+    private void replay(EventHandler handler, EventCounter counter) {
+
+        var manager = EventsUtils.createEventsManager();
+        manager.addHandler(handler);
+        manager.initProcessing();
+        for (var event : events) {
+            manager.processEvent(event);
+        }
+        manager.finishProcessing();
+        counter.events += events.size();
+    }
+}
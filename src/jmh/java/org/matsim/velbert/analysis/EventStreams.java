@@ -0,0 +1,98 @@
+package org.matsim.velbert.analysis;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Event streams replayed by the benchmarks. Paths are relative to the project directory, which is the working directory
+ * when the benchmarks are started with the jmh profile.
+ */
+final class EventStreams {
+
+    static final String NETWORK = "scenarios/equil/network.xml";
+    static final String TEST_EVENTS = "test/input/org/matsim/project/RunMatsimTest/test/output_events.xml.gz";
+
+    private static final double LINK_TRAVEL_TIME = 360;
+
+    private EventStreams() {
+    }
+
+    static List<Event> read(String filename) {
+
+        var events = new ArrayList<Event>();
+        var manager = EventsUtils.createEventsManager();
+        manager.addHandler((BasicEventHandler) events::add);
+        EventsUtils.readEvents(manager, filename);
+        return events;
+    }
+
+    /**
+     * Creates home-work-home tours on the equil network. Every fifth person drives through the network, the others use
+     * one of the teleported modes.
+     */
+    static List<Event> synthetic(int numberOfPersons) {
+
+        var events = new ArrayList<Event>(numberOfPersons * 30);
+        var home = Id.createLinkId("1");
+        var work = Id.createLinkId("20");
+
+        for (var i = 0; i < numberOfPersons; i++) {
+
+            var person = Id.createPersonId("synthetic_" + i);
+            var vehicle = Id.createVehicleId("synthetic_" + i);
+            var mode = TripAnalyzerModule.MODES.get(i % TripAnalyzerModule.MODES.size());
+            var middle = 2 + i % 9;
+            var toWork = List.of(home, Id.createLinkId(middle), Id.createLinkId(middle + 9), work);
+            var toHome = List.of(work, Id.createLinkId("21"), Id.createLinkId("22"), Id.createLinkId("23"), home);
+
+            var time = 6 * 3600. + i % 7200;
+            events.add(new ActivityEndEvent(time, person, home, null, "home_43200.0", null));
+            time = addLeg(events, time, person, vehicle, mode, toWork);
+            events.add(new ActivityStartEvent(time, person, work, null, "work_28800.0", null));
+
+            time += 8 * 3600;
+            events.add(new ActivityEndEvent(time, person, work, null, "work_28800.0", null));
+            time = addLeg(events, time, person, vehicle, mode, toHome);
+            events.add(new ActivityStartEvent(time, person, home, null, "home_43200.0", null));
+        }
+
+        events.sort(Comparator.comparingDouble(Event::getTime));
+        return events;
+    }
+
+    private static double addLeg(List<Event> events, double time, Id<Person> person, Id<Vehicle> vehicle, String mode, List<Id<Link>> route) {
+
+        var from = route.get(0);
+        var to = route.get(route.size() - 1);
+        events.add(new PersonDepartureEvent(time, person, from, mode, mode));
+
+        if (!mode.equals(TransportMode.car)) {
+            time += LINK_TRAVEL_TIME * route.size();
+            events.add(new PersonArrivalEvent(time, person, to, mode));
+            return time;
+        }
+
+        events.add(new PersonEntersVehicleEvent(time, person, vehicle));
+        events.add(new VehicleEntersTrafficEvent(time, person, from, vehicle, mode, 1.0));
+        for (var i = 1; i < route.size(); i++) {
+            time += 1;
+            events.add(new LinkLeaveEvent(time, vehicle, route.get(i - 1)));
+            events.add(new LinkEnterEvent(time, vehicle, route.get(i)));
+            time += LINK_TRAVEL_TIME;
+        }
+        events.add(new VehicleLeavesTrafficEvent(time, person, to, vehicle, mode, 1.0));
+        events.add(new PersonLeavesVehicleEvent(time, person, vehicle));
+        events.add(new PersonArrivalEvent(time, person, to, mode));
+        return time;
+    }
+}
@@ -0,0 +1,119 @@
+package org.matsim.velbert.analysis;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the work the trip analyzer module does after the mobsim of an analyzed iteration: writing the modal share
+ * tables from the trip cube and recording the shares for the convergence check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MobsimAggregationBenchmark {
+
+    private static final String[] PURPOSES = {"home_43200.0", "work_28800.0", "leisure_3600.0", "shop_daily_1800.0", "educ_primary_21600.0"};
+
+    @Param({"10000", "1000000"})
+    public int numberOfTrips;
+
+    private final TripCube cube = new TripCube(null);
+    private ModalShareHistory history;
+    private Path directory;
+    private int iteration;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+
+        var random = new Random(4711);
+        var trip = new SyntheticTrip();
+        for (var i = 0; i < numberOfTrips; i++) {
+            trip.mode = TripAnalyzerModule.MODES.get(random.nextInt(TripAnalyzerModule.MODES.size()));
+            trip.purpose = PURPOSES[random.nextInt(PURPOSES.length)];
+            trip.departureTime = random.nextDouble() * 24 * 3600;
+            trip.distance = random.nextDouble() * 20_000;
+            cube.add(trip);
+        }
+        directory = Files.createTempDirectory("mobsim-aggregation");
+    }
+
+    @Setup(Level.Iteration)
+    public void resetHistory() {
+        history = new ModalShareHistory(TripAnalyzerModule.MODES);
+        iteration = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public int afterMobsim() {
+
+        TripAnalyzerModule.writeTables(cube, numberOfTrips / 3, directory::resolve);
+        history.record(iteration++, cube);
+        return history.size();
+    }
+
+    private static class SyntheticTrip implements TripRecord {
+
+        private String mode;
+        private String purpose;
+        private double departureTime;
+        private double distance;
+
+        @Override
+        public int getPersonIndex() {
+            return 0;
+        }
+
+        @Override
+        public String getMode() {
+            return mode;
+        }
+
+        @Override
+        public double getDepartureTime() {
+            return departureTime;
+        }
+
+        @Override
+        public String getEndActivityType() {
+            return purpose;
+        }
+
+        @Override
+        public double getStartX() {
+            return 0;
+        }
+
+        @Override
+        public double getStartY() {
+            return 0;
+        }
+
+        @Override
+        public double getEndX() {
+            return distance;
+        }
+
+        @Override
+        public double getEndY() {
+            return 0;
+        }
+    }
+}
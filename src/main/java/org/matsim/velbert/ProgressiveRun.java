@@ -0,0 +1,156 @@
+package org.matsim.velbert;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.application.MATSimAppCommand;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.velbert.analysis.TripAnalyzerModule;
+import org.matsim.velbert.zones.PostalCodeZones;
+import picocli.CommandLine;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Calibrates the scenario on progressively larger samples. Most iterations run on the smallest sample. After each stage
+ * the final plans of all agents are handed over to the agents with the same id in the next, larger sample, whose
+ * remaining agents start from their initial plans. Only the last few iterations run at full size.
+ * <p>
+ * The populations of the stages are found by replacing the sample size in the plans file of the config, e.g.
+ * {@code matsim-velbert-v1.0-1pct.plans.xml.gz}, as written by {@code prepare downsample-population}. Flow and storage
+ * capacities of the config are scaled to the sample of each stage. Each stage writes into a sub directory of the output
+ * directory of the config and is set up like {@link RunVelbert}, with ride on congested car travel times and the trip
+ * analysis of the Velbert postal code zones.
+ * <p>
+ * Usage: {@code run-progressive --config <config> --samples 0.01 0.1 0.25 --iterations 200 40 10}
+ */
+@CommandLine.Command(
+        name = "run-progressive",
+        description = "Run the scenario on progressively larger samples, passing the plans on from one to the next",
+        showDefaultValues = true
+)
+public class ProgressiveRun implements MATSimAppCommand {
+
+    private static final Logger log = LogManager.getLogger(ProgressiveRun.class);
+
+    private static final Pattern SAMPLE_SIZE = Pattern.compile("(\\d+)pct");
+
+    @CommandLine.ParentCommand
+    private VelbertApplication application;
+
+    @CommandLine.Option(names = "--config", description = "Config of the scenario. Its plans file must contain the sample size, e.g. 1pct", required = true)
+    private String config;
+
+    @CommandLine.Option(names = "--samples", description = "Sample size of each stage, smallest first", arity = "1..*", required = true)
+    private List<Double> samples;
+
+    @CommandLine.Option(names = "--iterations", description = "Number of iterations of each stage", arity = "1..*", required = true)
+    private List<Integer> iterations;
+
+    @Override
+    public Integer call() {
+
+        if (samples.size() != iterations.size())
+            throw new IllegalArgumentException("Need the number of iterations for each of the " + samples.size() + " samples");
+        if (iterations.stream().anyMatch(n -> n < 1))
+            throw new IllegalArgumentException("Every stage needs at least one iteration, got " + iterations);
+        for (var i = 1; i < samples.size(); i++) {
+            if (samples.get(i) <= samples.get(i - 1))
+                throw new IllegalArgumentException("Samples must be ordered from the smallest to the largest, got " + samples);
+        }
+
+        // shared by all stages
+        var postalCodeZones = PostalCodeZones.readAll();
+        var velbert = postalCodeZones.subset(PostalCodeZones.VELBERT);
+
+        Population previousPlans = null;
+        for (var i = 0; i < samples.size(); i++) {
+
+            var sample = samples.get(i);
+            var stageConfig = application.prepareConfig(ConfigUtils.loadConfig(config));
+
+            var plansFile = stageConfig.plans().getInputFile();
+            var matcher = SAMPLE_SIZE.matcher(plansFile);
+            if (!matcher.find())
+                throw new IllegalArgumentException("Can't find the sample size in the plans file " + plansFile);
+
+            var configSample = Integer.parseInt(matcher.group(1)) / 100.;
+            var name = toPct(sample);
+            log.info("Running stage " + name + " with " + iterations.get(i) + " iterations");
+
+            stageConfig.plans().setInputFile(matcher.replaceFirst(name));
+            stageConfig.qsim().setFlowCapFactor(stageConfig.qsim().getFlowCapFactor() * sample / configSample);
+            stageConfig.qsim().setStorageCapFactor(stageConfig.qsim().getStorageCapFactor() * sample / configSample);
+            stageConfig.controler().setLastIteration(stageConfig.controler().getFirstIteration() + iterations.get(i) - 1);
+            stageConfig.controler().setOutputDirectory(Paths.get(stageConfig.controler().getOutputDirectory(), name).toString());
+            stageConfig.controler().setRunId(stageConfig.controler().getRunId() == null ? name : stageConfig.controler().getRunId() + "-" + name);
+
+            var scenario = ScenarioUtils.loadScenario(stageConfig);
+            if (previousPlans != null) {
+                var transferred = transferPlans(previousPlans, scenario.getPopulation());
+                log.info("Took over the plans of " + transferred + " of " + scenario.getPopulation().getPersons().size() + " agents from the previous stage");
+            }
+
+            var controler = new Controler(scenario);
+            application.prepareControler(controler);
+
+            // use the (congested) car travel time for the teleported ride mode
+            controler.addOverridingModule(new AbstractModule() {
+                @Override
+                public void install() {
+                    addTravelTimeBinding(TransportMode.ride).to(networkTravelTime());
+                    addTravelDisutilityFactoryBinding(TransportMode.ride).to(carTravelDisutilityFactoryKey());
+                }
+            });
+
+            // create modal share analysis
+            controler.addOverridingModule(new TripAnalyzerModule(velbert, postalCodeZones));
+
+            controler.run();
+
+            previousPlans = scenario.getPopulation();
+        }
+        return 0;
+    }
+
+    /**
+     * Replaces the plans of each agent in the target population with the plans, including scores and the selected plan,
+     * of the agent with the same id in the source population. The plans are moved, not copied.
+     *
+     * @return number of agents which got plans from the source population
+     */
+    static int transferPlans(Population source, Population target) {
+
+        var transferred = 0;
+        for (var person : target.getPersons().values()) {
+            var sourcePerson = source.getPersons().get(person.getId());
+            if (sourcePerson == null) continue;
+
+            for (var plan : new ArrayList<>(person.getPlans())) {
+                person.removePlan(plan);
+            }
+            var selectedPlan = sourcePerson.getSelectedPlan();
+            for (var plan : new ArrayList<>(sourcePerson.getPlans())) {
+                sourcePerson.removePlan(plan);
+                person.addPlan(plan);
+            }
+            person.setSelectedPlan(selectedPlan);
+            transferred++;
+        }
+        return transferred;
+    }
+
+    private static String toPct(double sample) {
+        var pct = sample * 100;
+        if (Math.abs(pct - Math.round(pct)) > 1e-9)
+            throw new IllegalArgumentException("Sample size " + sample + " is not a whole percentage");
+        return Math.round(pct) + "pct";
+    }
+}
@@ -1,70 +1,42 @@
 package org.matsim.velbert;
 
-import org.geotools.geometry.jts.JTS;
-import org.geotools.referencing.CRS;
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.prep.PreparedGeometry;
-import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.matsim.api.core.v01.TransportMode;
-import org.matsim.api.core.v01.population.HasPlansAndId;
 import org.matsim.core.config.ConfigUtils;
-import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
 import org.matsim.core.config.groups.PlansCalcRouteConfigGroup;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.Controler;
-import org.matsim.core.router.TripStructureUtils;
 import org.matsim.core.scenario.ScenarioUtils;
-import org.matsim.core.utils.geometry.CoordinateTransformation;
-import org.matsim.core.utils.geometry.geotools.MGC;
-import org.matsim.core.utils.geometry.transformations.TransformationFactory;
-import org.matsim.core.utils.gis.ShapeFileReader;
 import org.matsim.velbert.analysis.TripAnalyzerModule;
-import org.opengis.referencing.FactoryException;
-import org.opengis.referencing.operation.MathTransform;
-import org.opengis.referencing.operation.TransformException;
+import org.matsim.velbert.checkpoint.CheckpointModule;
+import org.matsim.velbert.checkpoint.CheckpointOptions;
+import org.matsim.velbert.scoring.ActivityScoringModule;
+import org.matsim.velbert.scoring.ActivityTypes;
+import org.matsim.velbert.zones.PostalCodeZones;
 
-import java.net.MalformedURLException;
-import java.net.URI;
-import java.util.Collection;
-import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.util.BitSet;
 
 public class RunVelbert {
 
-    private static final String shapeFile = "https://svn.vsp.tu-berlin.de/repos/public-svn/matsim/scenarios/countries/de/velbert/velbert-v1.0/shapes/Postleitzahlengebiete-shp/OSM_PLZ_072019.shp";
-    private static final Set<String> zipCodes = Set.of("42551", "42549", "42555", "42553");
+    public static void main(String[] args) throws IOException {
 
-    public static void main(String[] args) throws MalformedURLException, FactoryException {
-
-        var config = ConfigUtils.loadConfig(args);
+        var options = CheckpointOptions.parse(args);
+        var config = ConfigUtils.loadConfig(options.getConfigArgs());
 
         config.plansCalcRoute().setAccessEgressType(PlansCalcRouteConfigGroup.AccessEgressType.accessEgressModeToLink);
 
-        for (long ii = 600; ii <= 97200; ii += 600) {
-
-            for (String act : List.of("educ_higher", "educ_kiga", "educ_other", "educ_primary", "educ_secondary",
-                    "educ_tertiary", "errands", "home", "visit")) {
-                config.planCalcScore()
-                        .addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams(act + "_" + ii + ".0").setTypicalDuration(ii));
-            }
-
-            config.planCalcScore().addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("work_" + ii + ".0").setTypicalDuration(ii)
-                    .setOpeningTime(6. * 3600.).setClosingTime(20. * 3600.));
-            config.planCalcScore().addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("business_" + ii + ".0").setTypicalDuration(ii)
-                    .setOpeningTime(6. * 3600.).setClosingTime(20. * 3600.));
-            config.planCalcScore().addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("leisure_" + ii + ".0").setTypicalDuration(ii)
-                    .setOpeningTime(9. * 3600.).setClosingTime(27. * 3600.));
-            config.planCalcScore().addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("shop_daily_" + ii + ".0").setTypicalDuration(ii)
-                    .setOpeningTime(8. * 3600.).setClosingTime(20. * 3600.));
-            config.planCalcScore().addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("shop_other_" + ii + ".0").setTypicalDuration(ii)
-                    .setOpeningTime(8. * 3600.).setClosingTime(20. * 3600.));
-        }
+        // one set of activity parameters per base type, the typical duration is taken from the activity type
+        ActivityTypes.configure(config.planCalcScore());
 
+        options.prepareConfig(config);
         var scenario = ScenarioUtils.loadScenario(config);
+        options.prepareScenario(scenario, new BitSet());
 
         var controler = new Controler(scenario);
 
+        controler.addOverridingModule(new ActivityScoringModule());
+        controler.addOverridingModule(new CheckpointModule());
+
         // use the (congested) car travel time for the teleported ride mode
         controler.addOverridingModule(new AbstractModule() {
             @Override
@@ -75,39 +47,11 @@ public class RunVelbert {
         });
 
         // create modal share analysis
-        var dilutionArea = getDilutionArea();
-        var analyzerModule = new TripAnalyzerModule(personId -> {
-            var person = scenario.getPopulation().getPersons().get(personId);
-            var firstActivity = TripStructureUtils.getActivities(person.getSelectedPlan(), TripStructureUtils.StageActivityHandling.ExcludeStageActivities).get(0);
-            return dilutionArea.stream().anyMatch(geometry -> geometry.covers(MGC.coord2Point(firstActivity.getCoord())));
-        });
+        var postalCodeZones = PostalCodeZones.readAll();
+        var dilutionArea = postalCodeZones.subset(PostalCodeZones.VELBERT);
+        var analyzerModule = new TripAnalyzerModule(dilutionArea, postalCodeZones);
         controler.addOverridingModule(analyzerModule);
 
         controler.run();
     }
-
-    private static Collection<PreparedGeometry> getDilutionArea() throws FactoryException, MalformedURLException {
-
-        var factory = new PreparedGeometryFactory();
-        var fromCRS = CRS.decode("EPSG:3857");
-        var toCRS = CRS.decode("EPSG:25832");
-        var transformation = CRS.findMathTransform(fromCRS, toCRS);
-
-        var uri = URI.create(shapeFile);
-        return ShapeFileReader.getAllFeatures(uri.toURL()).stream()
-                .filter(simpleFeature -> zipCodes.contains((String) simpleFeature.getAttribute("plz")))
-                .map(simpleFeature -> (Geometry) simpleFeature.getDefaultGeometry())
-                .map(geometry -> transform(geometry, transformation))
-                .map(factory::create)
-                .collect(Collectors.toSet());
-
-    }
-
-    private static Geometry transform(Geometry geometry, MathTransform transform) {
-        try {
-            return JTS.transform(geometry, transform);
-        } catch (TransformException e) {
-            throw new RuntimeException(e);
-        }
-    }
 }
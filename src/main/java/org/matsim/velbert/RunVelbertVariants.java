@@ -0,0 +1,135 @@
+package org.matsim.velbert;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.PlansCalcRouteConfigGroup;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.velbert.analysis.TripAnalyzerModule;
+import org.matsim.velbert.checkpoint.CheckpointModule;
+import org.matsim.velbert.checkpoint.CheckpointOptions;
+import org.matsim.velbert.policy.NetworkOverlay;
+import org.matsim.velbert.policy.SpeedPolicy;
+import org.matsim.velbert.scoring.ActivityScoringModule;
+import org.matsim.velbert.scoring.ActivityTypes;
+import org.matsim.velbert.zones.PostalCodeZones;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the base case and the free speed policies of {@link RunVelbertReduceFreeSpeedVOne},
+ * {@link RunVelbertReduceFreeSpeedVTwo} and {@link RunVelbertFreeSpeedThree} in one JVM. The network and the postal
+ * code zones are read once and shared by all variants. A policy only changes the free speed of its links through a
+ * {@link NetworkOverlay}, which is restored after the variant. Each variant writes into a sub directory of the output
+ * directory of the config.
+ * <p>
+ * Variants run one after the other with all cores of the config. Running them concurrently is not possible, since
+ * MATSim keeps the random number generator and the output logging in global state, and all variants drive on the same
+ * network. The population is read again for every variant, since a run changes the plans.
+ * <p>
+ * The checkpoint options of {@link CheckpointOptions} apply to every selected variant. {@code --warm-start} starts all
+ * of them from the same checkpoint, {@code --resume} continues each of them from its own latest checkpoint, so select
+ * the variants which didn't finish with {@code --variants}.
+ * <p>
+ * Usage: {@code RunVelbertVariants <config> [--variants=base,vOne,vTwo,three] [--warm-start=<dir> | --resume] [--config:...]}
+ */
+public class RunVelbertVariants {
+
+    private static final Logger log = LogManager.getLogger(RunVelbertVariants.class);
+
+    private static final String VARIANTS_OPTION = "--variants=";
+
+    public static void main(String[] args) throws IOException {
+
+        var options = CheckpointOptions.parse(args);
+        var configArgs = new ArrayList<String>();
+        List<String> selectedVariants = null;
+        for (var arg : options.getConfigArgs()) {
+            if (arg.startsWith(VARIANTS_OPTION)) selectedVariants = Arrays.asList(arg.substring(VARIANTS_OPTION.length()).split(","));
+            else configArgs.add(arg);
+        }
+
+        // shared by all variants
+        var baseConfig = loadConfig(configArgs);
+        var networkFile = baseConfig.network().getInputFile();
+        var network = NetworkUtils.readNetwork(baseConfig.network().getInputFileURL(baseConfig.getContext()).toString());
+        var postalCodeZones = PostalCodeZones.readAll();
+        var velbert = postalCodeZones.subset(PostalCodeZones.VELBERT);
+
+        Map<String, SpeedPolicy> variants = new LinkedHashMap<>();
+        variants.put("base", null);
+        variants.put("vOne", SpeedPolicy.inZones(velbert).withFreespeedBetween(30 / 3.6, 100 / 3.6).setFreespeed(30 / 3.6));
+        variants.put("vTwo", SpeedPolicy.inZones(velbert).withFreespeedBetween(30 / 3.6, 51 / 3.6).setFreespeed(30 / 3.6));
+        variants.put("three", SpeedPolicy.inZones(velbert).setFreespeed(3));
+
+        if (selectedVariants != null && !variants.keySet().containsAll(selectedVariants))
+            throw new IllegalArgumentException("Unknown variant in " + selectedVariants + ". Possible variants are " + variants.keySet());
+
+        for (var variant : variants.entrySet()) {
+            if (selectedVariants != null && !selectedVariants.contains(variant.getKey())) continue;
+
+            log.info("Running variant " + variant.getKey());
+
+            var config = loadConfig(configArgs);
+            config.controler().setOutputDirectory(Paths.get(baseConfig.controler().getOutputDirectory(), variant.getKey()).toString());
+            config.controler().setRunId(baseConfig.controler().getRunId() == null ? variant.getKey() : baseConfig.controler().getRunId() + "-" + variant.getKey());
+            options.prepareConfig(config);
+
+            // load everything but the network, which is shared
+            config.network().setInputFile(null);
+            var scenario = (MutableScenario) ScenarioUtils.loadScenario(config);
+            scenario.setNetwork(network);
+            config.network().setInputFile(networkFile);
+
+            var overlay = new NetworkOverlay(network);
+            if (variant.getValue() != null) variant.getValue().apply(overlay);
+
+            try {
+                options.prepareScenario(scenario, overlay.getChangedLinks());
+                var controler = new Controler(scenario);
+
+                controler.addOverridingModule(new ActivityScoringModule());
+                controler.addOverridingModule(new CheckpointModule());
+
+                // use the (congested) car travel time for the teleported ride mode
+                controler.addOverridingModule(new AbstractModule() {
+                    @Override
+                    public void install() {
+                        addTravelTimeBinding(TransportMode.ride).to(networkTravelTime());
+                        addTravelDisutilityFactoryBinding(TransportMode.ride).to(carTravelDisutilityFactoryKey());
+                    }
+                });
+
+                // create modal share analysis
+                controler.addOverridingModule(new TripAnalyzerModule(velbert, postalCodeZones));
+
+                controler.run();
+            } finally {
+                log.info("Restoring free speeds of " + overlay.size() + " links after variant " + variant.getKey());
+                overlay.restore();
+            }
+        }
+    }
+
+    private static Config loadConfig(List<String> args) {
+
+        var config = ConfigUtils.loadConfig(args.toArray(new String[0]));
+        config.plansCalcRoute().setAccessEgressType(PlansCalcRouteConfigGroup.AccessEgressType.accessEgressModeToLink);
+
+        // one set of activity parameters per base type, the typical duration is taken from the activity type
+        ActivityTypes.configure(config.planCalcScore());
+        return config;
+    }
+}
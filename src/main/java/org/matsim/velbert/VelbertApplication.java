@@ -5,17 +5,22 @@ import org.matsim.application.prepare.population.DownSamplePopulation;
 import org.matsim.application.prepare.population.ResolveGridCoordinates;
 import org.matsim.application.prepare.population.TrajectoryToPlans;
 import org.matsim.core.config.Config;
-import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
 import org.matsim.core.config.groups.PlansCalcRouteConfigGroup;
+import org.matsim.core.controler.Controler;
+import org.matsim.velbert.analysis.AnalyzeEvents;
+import org.matsim.velbert.analysis.ConvertEvents;
 import org.matsim.velbert.prepare.*;
+import org.matsim.velbert.scoring.ActivityScoringModule;
+import org.matsim.velbert.scoring.ActivityTypes;
 import picocli.CommandLine;
 
-import java.util.List;
-
-@CommandLine.Command(header = ":: Open Velbert Scenario ::", version="1.0")
+@CommandLine.Command(header = ":: Open Velbert Scenario ::", version="1.0", subcommands = ProgressiveRun.class)
 @MATSimApplication.Prepare({
         CreateNetwork.class, CreatePt.class, TrajectoryToPlans.class, ResolveGridCoordinates.class,
-        DownSamplePopulation.class, CleanPopulation.class, CreateVehicleTypes.class, ShapePopulationFilter.class
+        DownSamplePopulation.class, StratifiedDownSamplePopulation.class, CleanPopulation.class, CreateVehicleTypes.class, ShapePopulationFilter.class
+})
+@MATSimApplication.Analysis({
+        AnalyzeEvents.class, ConvertEvents.class
 })
 public class VelbertApplication extends MATSimApplication {
 
@@ -26,23 +31,8 @@ public class VelbertApplication extends MATSimApplication {
     @Override
     protected Config prepareConfig(Config config) {
 
-        for (long ii = 600; ii <= 97200; ii += 600) {
-
-            for (String act : List.of("business", "educ_higher", "educ_kiga", "educ_other", "educ_primary", "exuc_secondary",
-                    "educ_tertiary", "errands", "home", "leasure", "shop_daily", "shop_other", "visit", "word")) {
-                config.planCalcScore()
-                        .addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams(act + "_" + ii + ".0").setTypicalDuration(ii));
-            }
-
-            config.planCalcScore().addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("work_" + ii + ".0").setTypicalDuration(ii)
-                    .setOpeningTime(6. * 3600.).setClosingTime(20. * 3600.));
-            config.planCalcScore().addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("business_" + ii + ".0").setTypicalDuration(ii)
-                    .setOpeningTime(6. * 3600.).setClosingTime(20. * 3600.));
-            config.planCalcScore().addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("leisure_" + ii + ".0").setTypicalDuration(ii)
-                    .setOpeningTime(9. * 3600.).setClosingTime(27. * 3600.));
-            config.planCalcScore().addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("shopping_" + ii + ".0").setTypicalDuration(ii)
-                    .setOpeningTime(8. * 3600.).setClosingTime(20. * 3600.));
-        }
+        // one set of activity parameters per base type, the typical duration is taken from the activity type
+        ActivityTypes.configure(config.planCalcScore());
 
         config.plansCalcRoute().setAccessEgressType(PlansCalcRouteConfigGroup.AccessEgressType.accessEgressModeToLink);
         config.qsim().setUsingTravelTimeCheckInTeleportation(true);
@@ -50,4 +40,9 @@ public class VelbertApplication extends MATSimApplication {
 
         return config;
     }
+
+    @Override
+    protected void prepareControler(Controler controler) {
+        controler.addOverridingModule(new ActivityScoringModule());
+    }
 }
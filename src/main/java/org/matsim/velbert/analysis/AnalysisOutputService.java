@@ -0,0 +1,104 @@
+package org.matsim.velbert.analysis;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.listener.ShutdownListener;
+
+import javax.inject.Inject;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes analysis output on a background thread, so that the controler does not wait for it before scoring and
+ * replanning. Output tasks are run one after the other in the order they were submitted. Everything handed to a task
+ * must not be changed afterwards, since the task may run at any later time.
+ * <p>
+ * All pending output is written before the controler shuts down. Failures of a task are rethrown by the next
+ * {@link #submit(Runnable)}, so that the run fails in the iteration after the failure, or by {@link #flush()}.
+ */
+public class AnalysisOutputService implements ShutdownListener {
+
+    private static final Logger log = LogManager.getLogger(AnalysisOutputService.class);
+
+    private final boolean compress;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "analysis-output");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Future<?>> pending = new ArrayList<>();
+
+    @Inject
+    AnalysisOutputService(Config config) {
+        this(ConfigUtils.addOrGetModule(config, TripAnalyzerConfigGroup.class).isCompressOutput());
+    }
+
+    AnalysisOutputService(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * @return the filename with a .gz suffix if output is compressed. Writers which open files through
+     * {@link org.matsim.core.utils.io.IOUtils} compress them based on that suffix.
+     */
+    public Path getFilename(Path filename) {
+        return compress ? filename.resolveSibling(filename.getFileName() + ".gz") : filename;
+    }
+
+    public synchronized void submit(Runnable task) {
+
+        for (var iterator = pending.iterator(); iterator.hasNext(); ) {
+            var future = iterator.next();
+            if (!future.isDone()) continue;
+
+            iterator.remove();
+            get(future);
+        }
+        pending.add(executor.submit(task));
+    }
+
+    /**
+     * Waits until all submitted output is written.
+     */
+    public void flush() {
+
+        List<Future<?>> tasks;
+        synchronized (this) {
+            tasks = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        for (var task : tasks) {
+            get(task);
+        }
+    }
+
+    private static void get(Future<?> task) {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for analysis output", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Writing analysis output failed", e.getCause());
+        }
+    }
+
+    @Override
+    public void notifyShutdown(ShutdownEvent event) {
+        log.info("Waiting for pending analysis output");
+        try {
+            flush();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package org.matsim.velbert.analysis;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.application.MATSimAppCommand;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.velbert.zones.LinkZoneOverlaps;
+import org.matsim.velbert.zones.ShapeFeatures;
+import org.matsim.velbert.zones.ZoneLayer;
+import org.opengis.filter.Filter;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Runs several analyses on an events file while reading it only once. All requested analyses are attached to the same
+ * events manager. The resulting tables are written concurrently once the events are read.
+ */
+@CommandLine.Command(
+        name = "analyze",
+        description = "Run multiple analyses on an events file in a single pass",
+        showDefaultValues = true
+)
+public class AnalyzeEvents implements MATSimAppCommand {
+
+    private static final Logger log = LogManager.getLogger(AnalyzeEvents.class);
+
+    enum Analysis {linkLeaveCounts, freeSpeeds, linkVolumes, trips, modalShare, odMatrix}
+
+    @CommandLine.Option(names = "--events", description = "path to the events file, either xml or converted with convert-events", required = true)
+    private Path events;
+
+    @CommandLine.Option(names = "--network", description = "path to the network file", required = true)
+    private Path network;
+
+    @CommandLine.Option(names = "--shp", description = "shape file of the analysis area, in the same CRS as the network. Required for link leave counts and free speeds")
+    private Path shapeFile;
+
+    @CommandLine.Option(names = "--min-overlap", description = "if set, links are in the analysis area if at least this share of their length lies in it, " +
+            "instead of their coordinate. The overlaps are stored next to the network")
+    private Double minOverlap;
+
+    @CommandLine.Option(names = "--population", description = "if set, modal share and OD matrix count trips with the sample weights of the persons. " +
+            "Together with --shp, the modal share only contains persons whose first activity lies within the analysis area")
+    private Path population;
+
+    @CommandLine.Option(names = "--od-shp", description = "shape file of the zones of the OD matrix, in the same CRS as the network. Required for the OD matrix")
+    private Path odShapeFile;
+
+    @CommandLine.Option(names = "--od-zone-id", description = "attribute of the OD zones which holds their id", defaultValue = "plz")
+    private String odZoneIdAttribute;
+
+    @CommandLine.Option(names = "--analyses", description = "analyses to run. Possible values: ${COMPLETION-CANDIDATES}", split = ",",
+            defaultValue = "linkLeaveCounts,freeSpeeds,trips,modalShare")
+    private List<Analysis> analyses;
+
+    @CommandLine.Option(names = "--output", description = "output directory", defaultValue = ".")
+    private Path output;
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new AnalyzeEvents()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+
+        log.info("Reading network from " + network);
+        var network = NetworkUtils.readNetwork(this.network.toString());
+        var area = shapeFile == null ? null : readZones(shapeFile, null);
+
+        var manager = EventsUtils.createEventsManager();
+        var writers = new ArrayList<Callable<Void>>();
+        TripEventHandlerHW2 linkHandler = null;
+        Population persons = null;
+
+        for (var analysis : analyses) {
+            switch (analysis) {
+                case linkLeaveCounts:
+                case freeSpeeds:
+                    if (area == null)
+                        throw new IllegalArgumentException("Analysis " + analysis + " requires --shp");
+                    // link leave counts and free speeds come from the same handler
+                    if (linkHandler == null) {
+                        linkHandler = createAreaHandler(network, area);
+                        manager.addHandler(linkHandler);
+                    }
+                    writers.add(analysis == Analysis.linkLeaveCounts ? linkLeaveCounts(linkHandler) : freeSpeeds(linkHandler));
+                    break;
+                case linkVolumes:
+                    // without an area all links are counted, otherwise the same links as for the link leave counts
+                    BitSet countedLinks = null;
+                    if (area != null) {
+                        countedLinks = linkHandler != null ? linkHandler.getCountedLinks() : createAreaHandler(network, area).getCountedLinks();
+                    }
+                    writers.add(linkVolumes(network, manager, countedLinks));
+                    break;
+                case trips:
+                    writers.add(trips(network, manager));
+                    break;
+                case modalShare:
+                    if (persons == null) persons = readPopulation();
+                    writers.add(modalShare(network, manager, getHomeZones(area, persons), getWeights(persons)));
+                    break;
+                case odMatrix:
+                    if (odShapeFile == null)
+                        throw new IllegalArgumentException("Analysis " + analysis + " requires --od-shp");
+                    if (persons == null) persons = readPopulation();
+                    writers.add(odMatrix(network, manager, readZones(odShapeFile, odZoneIdAttribute), getWeights(persons)));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown analysis " + analysis);
+            }
+        }
+
+        log.info("Reading events from " + events);
+        if (BinaryEventsReader.isBinaryEventsFile(events)) {
+            new BinaryEventsReader(manager).readFile(events);
+        } else {
+            new ParallelEventsReader(manager).readFile(events.toString());
+        }
+
+        log.info("Writing results of " + writers.size() + " analyses to " + output);
+        Files.createDirectories(output);
+        var executor = Executors.newFixedThreadPool(Math.max(1, writers.size()));
+        try {
+            for (var result : executor.invokeAll(writers)) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        log.info("Done.");
+        return 0;
+    }
+
+    private Callable<Void> linkLeaveCounts(TripEventHandlerHW2 handler) {
+
+        return () -> {
+            writeLinkValues(handler.getLinkLeaveCounts(), output.resolve("linkLeaveCounts.csv"));
+            return null;
+        };
+    }
+
+    private Callable<Void> freeSpeeds(TripEventHandlerHW2 handler) {
+
+        return () -> {
+            writeLinkValues(handler.getLinkFreeSpeeds(), output.resolve("linkFreeSpeeds.csv"));
+            return null;
+        };
+    }
+
+    private Callable<Void> linkVolumes(Network network, EventsManager manager, BitSet countedLinks) {
+
+        var cube = new LinkVolumeCube(network, countedLinks);
+        manager.addHandler(cube);
+
+        return () -> {
+            cube.write(output.resolve("linkVolumes.csv"));
+            return null;
+        };
+    }
+
+    private Callable<Void> trips(Network network, EventsManager manager) {
+
+        var handler = new TripEventHandler(network);
+        manager.addHandler(handler);
+
+        return () -> {
+            try (var writer = Files.newBufferedWriter(output.resolve("trips.csv")); var printer = CSVFormat.DEFAULT.withDelimiter(';')
+                    .withHeader("person", "mode", "departureTime", "purpose", "startX", "startY", "endX", "endY", "distance").print(writer)) {
+
+                var cursor = handler.getTrips().cursor();
+                while (cursor.next()) {
+                    printer.printRecord(cursor.getPersonId(), cursor.getMode(), cursor.getDepartureTime(), TripCube.getPurpose(cursor.getEndActivityType()), cursor.getStartX(), cursor.getStartY(), cursor.getEndX(), cursor.getEndY(), cursor.getDistance());
+                }
+            }
+            return null;
+        };
+    }
+
+    private Callable<Void> modalShare(Network network, EventsManager manager, HomeZones homeZones, PersonWeights weights) {
+
+        var cube = new TripCube(homeZones, weights);
+        var persons = new BitSet();
+        var handler = new TripEventHandler(network, false);
+        handler.addTripListener(trip -> {
+            if (homeZones == null || homeZones.livesInZones(trip.getPersonId())) {
+                cube.add(trip);
+                persons.set(trip.getPersonIndex());
+            }
+        });
+        manager.addHandler(handler);
+
+        return () -> {
+            TripAnalyzerModule.writeTables(cube, persons.cardinality(), output::resolve);
+            return null;
+        };
+    }
+
+    private Callable<Void> odMatrix(Network network, EventsManager manager, ZoneLayer zones, PersonWeights weights) {
+
+        var matrix = new ODMatrix(zones, network, weights);
+        var handler = new TripEventHandler(network, false);
+        handler.addTripListener(matrix::add);
+        manager.addHandler(handler);
+
+        return () -> {
+            matrix.write(output.resolve("od-matrix.csv"));
+            return null;
+        };
+    }
+
+    private Population readPopulation() {
+
+        if (population == null) return null;
+
+        log.info("Reading population from " + population);
+        return PopulationUtils.readPopulation(population.toString());
+    }
+
+    private static HomeZones getHomeZones(ZoneLayer area, Population persons) {
+
+        if (area == null || persons == null) {
+            log.info("No --population or --shp given. Modal share contains all persons.");
+            return null;
+        }
+        return HomeZones.compute(persons, area);
+    }
+
+    private static PersonWeights getWeights(Population persons) {
+        return persons == null ? null : PersonWeights.compute(persons);
+    }
+
+    private static <T> void writeLinkValues(Map<Id<Link>, T> values, Path filename) throws IOException {
+
+        try (var writer = Files.newBufferedWriter(filename); var printer = CSVFormat.DEFAULT.print(writer)) {
+            for (var entry : values.entrySet()) {
+                printer.printRecord(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param idAttribute attribute which holds the id of a zone, or {@code null} to use the feature ids
+     */
+    private static ZoneLayer readZones(Path shapeFile, String idAttribute) throws IOException {
+        return ShapeFeatures.readZones(shapeFile.toString(), idAttribute, Filter.INCLUDE, null);
+    }
+
+    private TripEventHandlerHW2 createAreaHandler(Network network, ZoneLayer area) throws IOException {
+
+        if (minOverlap == null) return new TripEventHandlerHW2(network, union(area));
+
+        var layerName = shapeFile.getFileName().toString().replaceFirst("\\.shp$", "");
+        var overlaps = LinkZoneOverlaps.load(network, area, LinkZoneOverlaps.getFilename(this.network, layerName));
+        return new TripEventHandlerHW2(network, overlaps.getLinks(area.getIds(), minOverlap));
+    }
+
+    private static Geometry union(ZoneLayer area) {
+
+        var geometries = area.getGeometries().stream()
+                .map(PreparedGeometry::getGeometry)
+                .collect(Collectors.toList());
+        return geometries.get(0).getFactory().buildGeometry(geometries).union();
+    }
+}
@@ -0,0 +1,242 @@
+package org.matsim.velbert.analysis;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads events from the columnar binary file written by {@link BinaryEventsWriter} and passes them to the handlers of an
+ * events manager. The columns are memory-mapped, so no parsing or decompression is needed.
+ * <p>
+ * The file starts with a header of magic number, version, number of events and length of the string tables, followed
+ * by the person, link, vehicle and string tables and then one column after the other. Supported event types are
+ * activity start/end, person departure/arrival, transit driver starts, link enter/leave, vehicle enters/leaves traffic
+ * and person enters/leaves vehicle. Activity facility ids are not stored. Events of unknown types are skipped.
+ * <p>
+ * Since a mapped buffer can't exceed 2 GB, the columns are mapped in segments of {@value #EVENTS_PER_SEGMENT} events.
+ */
+public class BinaryEventsReader {
+
+    private static final Logger log = LogManager.getLogger(BinaryEventsReader.class);
+
+    static final int MAGIC = 0x56455654;
+    static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 20;
+    private static final int EVENTS_PER_SEGMENT = 1 << 26;
+
+    static final int TYPE = 0;
+    static final int TIME = 1;
+    static final int PERSON = 2;
+    static final int LINK = 3;
+    static final int VEHICLE = 4;
+    static final int STRING_1 = 5;
+    static final int STRING_2 = 6;
+    static final int STRING_3 = 7;
+    static final int VALUE_1 = 8;
+    static final int VALUE_2 = 9;
+    static final int NUMBER_OF_COLUMNS = 10;
+    private static final int[] COLUMN_WIDTHS = {1, 8, 4, 4, 4, 4, 4, 4, 8, 8};
+
+    static final byte ACTIVITY_END = 0;
+    static final byte ACTIVITY_START = 1;
+    static final byte PERSON_DEPARTURE = 2;
+    static final byte PERSON_ARRIVAL = 3;
+    static final byte TRANSIT_DRIVER_STARTS = 4;
+    static final byte LINK_ENTER = 5;
+    static final byte LINK_LEAVE = 6;
+    static final byte VEHICLE_ENTERS_TRAFFIC = 7;
+    static final byte VEHICLE_LEAVES_TRAFFIC = 8;
+    static final byte PERSON_ENTERS_VEHICLE = 9;
+    static final byte PERSON_LEAVES_VEHICLE = 10;
+
+    private final EventsManager manager;
+
+    private long numberOfUnknownEvents = 0;
+
+    public BinaryEventsReader(EventsManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * @return whether the file starts with the magic number of the binary events format
+     */
+    public static boolean isBinaryEventsFile(Path file) {
+
+        if (!Files.isRegularFile(file)) return false;
+
+        try (var in = new DataInputStream(Files.newInputStream(file))) {
+            return Files.size(file) >= HEADER_LENGTH && in.readInt() == MAGIC;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void readFile(Path file) {
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+            var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+            if (header.getInt() != MAGIC) throw new IllegalArgumentException(file + " is no binary events file");
+            var version = header.getInt();
+            if (version != VERSION) throw new IllegalArgumentException("Unsupported version " + version + " of binary events file " + file);
+            var numberOfEvents = header.getInt();
+            var tablesLength = header.getLong();
+
+            var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(HEADER_LENGTH)), 1 << 16));
+            var personIds = readIds(in, Person.class);
+            var linkIds = readIds(in, Link.class);
+            var vehicleIds = readIds(in, Vehicle.class);
+            var strings = readStrings(in);
+
+            var numberOfSegments = (int) (((long) numberOfEvents + EVENTS_PER_SEGMENT - 1) / EVENTS_PER_SEGMENT);
+            var columns = new ByteBuffer[numberOfSegments][NUMBER_OF_COLUMNS];
+            var offset = HEADER_LENGTH + tablesLength;
+            for (var i = 0; i < NUMBER_OF_COLUMNS; i++) {
+                for (var segment = 0; segment < numberOfSegments; segment++) {
+                    long firstEvent = (long) segment * EVENTS_PER_SEGMENT;
+                    long size = Math.min(EVENTS_PER_SEGMENT, numberOfEvents - firstEvent);
+                    columns[segment][i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + firstEvent * COLUMN_WIDTHS[i], size * COLUMN_WIDTHS[i]);
+                }
+                offset += (long) numberOfEvents * COLUMN_WIDTHS[i];
+            }
+
+            log.info("Reading " + numberOfEvents + " events from " + file);
+            numberOfUnknownEvents = 0;
+            manager.initProcessing();
+            for (var segment = 0; segment < numberOfSegments; segment++) {
+                dispatch((long) segment * EVENTS_PER_SEGMENT, columns[segment], personIds, linkIds, vehicleIds, strings);
+            }
+            manager.finishProcessing();
+
+            if (numberOfUnknownEvents > 0)
+                log.warn("Skipped " + numberOfUnknownEvents + " events of unknown types in " + file + ". It was probably written by a newer version.");
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Passes the events of one segment of the columns to the events manager.
+     */
+    private void dispatch(long firstEvent, ByteBuffer[] columns, Id<Person>[] personIds, Id<Link>[] linkIds, Id<Vehicle>[] vehicleIds, String[] strings) {
+
+        var types = columns[TYPE];
+        DoubleBuffer times = columns[TIME].asDoubleBuffer();
+        IntBuffer persons = columns[PERSON].asIntBuffer();
+        IntBuffer links = columns[LINK].asIntBuffer();
+        IntBuffer vehicles = columns[VEHICLE].asIntBuffer();
+        IntBuffer strings1 = columns[STRING_1].asIntBuffer();
+        IntBuffer strings2 = columns[STRING_2].asIntBuffer();
+        IntBuffer strings3 = columns[STRING_3].asIntBuffer();
+        DoubleBuffer values1 = columns[VALUE_1].asDoubleBuffer();
+        DoubleBuffer values2 = columns[VALUE_2].asDoubleBuffer();
+
+        for (var i = 0; i < types.limit(); i++) {
+
+            var time = times.get(i);
+            var person = get(personIds, persons.get(i));
+            var link = get(linkIds, links.get(i));
+            var vehicle = get(vehicleIds, vehicles.get(i));
+            var string1 = get(strings, strings1.get(i));
+
+            Event event;
+            switch (types.get(i)) {
+                case ACTIVITY_END:
+                    event = new ActivityEndEvent(time, person, link, null, string1, getCoord(values1.get(i), values2.get(i)));
+                    break;
+                case ACTIVITY_START:
+                    event = new ActivityStartEvent(time, person, link, null, string1, getCoord(values1.get(i), values2.get(i)));
+                    break;
+                case PERSON_DEPARTURE:
+                    event = new PersonDepartureEvent(time, person, link, string1, get(strings, strings2.get(i)));
+                    break;
+                case PERSON_ARRIVAL:
+                    event = new PersonArrivalEvent(time, person, link, string1);
+                    break;
+                case TRANSIT_DRIVER_STARTS:
+                    event = new TransitDriverStartsEvent(time, person, vehicle, createId(string1, TransitLine.class),
+                            createId(get(strings, strings2.get(i)), TransitRoute.class), createId(get(strings, strings3.get(i)), Departure.class));
+                    break;
+                case LINK_ENTER:
+                    event = new LinkEnterEvent(time, vehicle, link);
+                    break;
+                case LINK_LEAVE:
+                    event = new LinkLeaveEvent(time, vehicle, link);
+                    break;
+                case VEHICLE_ENTERS_TRAFFIC:
+                    event = new VehicleEntersTrafficEvent(time, person, link, vehicle, string1, values1.get(i));
+                    break;
+                case VEHICLE_LEAVES_TRAFFIC:
+                    event = new VehicleLeavesTrafficEvent(time, person, link, vehicle, string1, values1.get(i));
+                    break;
+                case PERSON_ENTERS_VEHICLE:
+                    event = new PersonEntersVehicleEvent(time, person, vehicle);
+                    break;
+                case PERSON_LEAVES_VEHICLE:
+                    event = new PersonLeavesVehicleEvent(time, person, vehicle);
+                    break;
+                default:
+                    if (numberOfUnknownEvents++ == 0)
+                        log.warn("Skipping unknown event type " + types.get(i) + " at event " + (firstEvent + i) + ". Further unknown events are only counted.");
+                    continue;
+            }
+            manager.processEvent(event);
+        }
+    }
+
+    private static <T> T get(T[] table, int index) {
+        return index < 0 ? null : table[index];
+    }
+
+    private static <T> Id<T> createId(String id, Class<T> type) {
+        return id == null ? null : Id.create(id, type);
+    }
+
+    private static Coord getCoord(double x, double y) {
+        return Double.isNaN(x) ? null : new Coord(x, y);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Id<T>[] readIds(DataInputStream in, Class<T> type) throws IOException {
+
+        var size = in.readInt();
+        var ids = (Id<T>[]) new Id[size];
+        for (var i = 0; i < size; i++) {
+            ids[i] = Id.create(in.readUTF(), type);
+        }
+        return ids;
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+
+        var size = in.readInt();
+        var strings = new String[size];
+        for (var i = 0; i < size; i++) {
+            strings[i] = in.readUTF().intern();
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,214 @@
+package org.matsim.velbert.analysis;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.core.events.handler.BasicEventHandler;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes events into the columnar binary format read by {@link BinaryEventsReader}. Register the writer as handler,
+ * replay the events once and call {@link #close()}.
+ * <p>
+ * Every event is stored as type code, time, person/link/vehicle index, three indices into a string table and two
+ * doubles. Ids and strings are stored once in tables. While events are handled, the columns are streamed into
+ * temporary files next to the output, so the writer needs no memory per event. See {@link BinaryEventsReader} for the
+ * layout and the supported event types. Other events are skipped.
+ */
+public class BinaryEventsWriter implements BasicEventHandler, AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(BinaryEventsWriter.class);
+
+    private final Path output;
+    private final Path tmpDirectory;
+
+    private final StringTable persons = new StringTable();
+    private final StringTable links = new StringTable();
+    private final StringTable vehicles = new StringTable();
+    private final StringTable strings = new StringTable();
+
+    private final DataOutputStream[] columns = new DataOutputStream[BinaryEventsReader.NUMBER_OF_COLUMNS];
+
+    private int numberOfEvents = 0;
+    private int numberOfSkippedEvents = 0;
+
+    public BinaryEventsWriter(Path output) {
+        this.output = output;
+        try {
+            this.tmpDirectory = Files.createTempDirectory(output.toAbsolutePath().getParent(), "binary-events");
+            for (var i = 0; i < columns.length; i++) {
+                columns[i] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(getColumnFile(i)), 1 << 16));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void handleEvent(Event event) {
+        try {
+            if (event instanceof ActivityEndEvent) {
+                var e = (ActivityEndEvent) event;
+                write(BinaryEventsReader.ACTIVITY_END, e.getTime(), persons.index(e.getPersonId()), links.index(e.getLinkId()), -1,
+                        strings.index(e.getActType()), -1, -1, getX(e.getCoord()), getY(e.getCoord()));
+            } else if (event instanceof ActivityStartEvent) {
+                var e = (ActivityStartEvent) event;
+                write(BinaryEventsReader.ACTIVITY_START, e.getTime(), persons.index(e.getPersonId()), links.index(e.getLinkId()), -1,
+                        strings.index(e.getActType()), -1, -1, getX(e.getCoord()), getY(e.getCoord()));
+            } else if (event instanceof PersonDepartureEvent) {
+                var e = (PersonDepartureEvent) event;
+                write(BinaryEventsReader.PERSON_DEPARTURE, e.getTime(), persons.index(e.getPersonId()), links.index(e.getLinkId()), -1,
+                        strings.index(e.getLegMode()), strings.index(e.getRoutingMode()), -1, Double.NaN, Double.NaN);
+            } else if (event instanceof PersonArrivalEvent) {
+                var e = (PersonArrivalEvent) event;
+                write(BinaryEventsReader.PERSON_ARRIVAL, e.getTime(), persons.index(e.getPersonId()), links.index(e.getLinkId()), -1,
+                        strings.index(e.getLegMode()), -1, -1, Double.NaN, Double.NaN);
+            } else if (event instanceof TransitDriverStartsEvent) {
+                var e = (TransitDriverStartsEvent) event;
+                write(BinaryEventsReader.TRANSIT_DRIVER_STARTS, e.getTime(), persons.index(e.getDriverId()), -1, vehicles.index(e.getVehicleId()),
+                        strings.index(e.getTransitLineId()), strings.index(e.getTransitRouteId()), strings.index(e.getDepartureId()), Double.NaN, Double.NaN);
+            } else if (event instanceof LinkEnterEvent) {
+                var e = (LinkEnterEvent) event;
+                write(BinaryEventsReader.LINK_ENTER, e.getTime(), -1, links.index(e.getLinkId()), vehicles.index(e.getVehicleId()),
+                        -1, -1, -1, Double.NaN, Double.NaN);
+            } else if (event instanceof LinkLeaveEvent) {
+                var e = (LinkLeaveEvent) event;
+                write(BinaryEventsReader.LINK_LEAVE, e.getTime(), -1, links.index(e.getLinkId()), vehicles.index(e.getVehicleId()),
+                        -1, -1, -1, Double.NaN, Double.NaN);
+            } else if (event instanceof VehicleEntersTrafficEvent) {
+                var e = (VehicleEntersTrafficEvent) event;
+                write(BinaryEventsReader.VEHICLE_ENTERS_TRAFFIC, e.getTime(), persons.index(e.getPersonId()), links.index(e.getLinkId()), vehicles.index(e.getVehicleId()),
+                        strings.index(e.getNetworkMode()), -1, -1, e.getRelativePositionOnLink(), Double.NaN);
+            } else if (event instanceof VehicleLeavesTrafficEvent) {
+                var e = (VehicleLeavesTrafficEvent) event;
+                write(BinaryEventsReader.VEHICLE_LEAVES_TRAFFIC, e.getTime(), persons.index(e.getPersonId()), links.index(e.getLinkId()), vehicles.index(e.getVehicleId()),
+                        strings.index(e.getNetworkMode()), -1, -1, e.getRelativePositionOnLink(), Double.NaN);
+            } else if (event instanceof PersonEntersVehicleEvent) {
+                var e = (PersonEntersVehicleEvent) event;
+                write(BinaryEventsReader.PERSON_ENTERS_VEHICLE, e.getTime(), persons.index(e.getPersonId()), -1, vehicles.index(e.getVehicleId()),
+                        -1, -1, -1, Double.NaN, Double.NaN);
+            } else if (event instanceof PersonLeavesVehicleEvent) {
+                var e = (PersonLeavesVehicleEvent) event;
+                write(BinaryEventsReader.PERSON_LEAVES_VEHICLE, e.getTime(), persons.index(e.getPersonId()), -1, vehicles.index(e.getVehicleId()),
+                        -1, -1, -1, Double.NaN, Double.NaN);
+            } else {
+                numberOfSkippedEvents++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes header, tables and columns into the output file and removes the temporary files.
+     */
+    @Override
+    public void close() throws IOException {
+
+        for (var column : columns) {
+            column.close();
+        }
+
+        // the tables are written into a buffer first, so that their length can go into the header
+        var tableBuffer = new ByteArrayOutputStream();
+        try (var tableOut = new DataOutputStream(tableBuffer)) {
+            persons.write(tableOut);
+            links.write(tableOut);
+            vehicles.write(tableOut);
+            strings.write(tableOut);
+        }
+
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output), 1 << 16))) {
+            out.writeInt(BinaryEventsReader.MAGIC);
+            out.writeInt(BinaryEventsReader.VERSION);
+            out.writeInt(numberOfEvents);
+            out.writeLong(tableBuffer.size());
+            tableBuffer.writeTo(out);
+            for (var i = 0; i < columns.length; i++) {
+                Files.copy(getColumnFile(i), out);
+            }
+        }
+
+        for (var i = 0; i < columns.length; i++) {
+            Files.delete(getColumnFile(i));
+        }
+        Files.delete(tmpDirectory);
+
+        log.info("Wrote " + numberOfEvents + " events to " + output + ". Skipped " + numberOfSkippedEvents + " events of unsupported types.");
+    }
+
+    private void write(byte type, double time, int person, int link, int vehicle, int string1, int string2, int string3, double value1, double value2) throws IOException {
+
+        if (numberOfEvents == Integer.MAX_VALUE) throw new IllegalStateException("Too many events for the binary format");
+
+        columns[BinaryEventsReader.TYPE].writeByte(type);
+        columns[BinaryEventsReader.TIME].writeDouble(time);
+        columns[BinaryEventsReader.PERSON].writeInt(person);
+        columns[BinaryEventsReader.LINK].writeInt(link);
+        columns[BinaryEventsReader.VEHICLE].writeInt(vehicle);
+        columns[BinaryEventsReader.STRING_1].writeInt(string1);
+        columns[BinaryEventsReader.STRING_2].writeInt(string2);
+        columns[BinaryEventsReader.STRING_3].writeInt(string3);
+        columns[BinaryEventsReader.VALUE_1].writeDouble(value1);
+        columns[BinaryEventsReader.VALUE_2].writeDouble(value2);
+        numberOfEvents++;
+    }
+
+    private Path getColumnFile(int column) {
+        return tmpDirectory.resolve("column-" + column);
+    }
+
+    private static double getX(Coord coord) {
+        return coord == null ? Double.NaN : coord.getX();
+    }
+
+    private static double getY(Coord coord) {
+        return coord == null ? Double.NaN : coord.getY();
+    }
+
+    private static class StringTable {
+
+        private final List<String> values = new ArrayList<>();
+        private final Object2IntOpenHashMap<String> indices = new Object2IntOpenHashMap<>();
+
+        private StringTable() {
+            indices.defaultReturnValue(-1);
+        }
+
+        private int index(Id<?> id) {
+            return id == null ? -1 : index(id.toString());
+        }
+
+        private int index(String value) {
+
+            if (value == null) return -1;
+
+            var index = indices.getInt(value);
+            if (index < 0) {
+                index = values.size();
+                values.add(value);
+                indices.put(value, index);
+            }
+            return index;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeInt(values.size());
+            for (var value : values) {
+                out.writeUTF(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.matsim.velbert.analysis;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.application.MATSimAppCommand;
+import org.matsim.core.events.EventsUtils;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+
+/**
+ * Converts an xml events file once into the binary format of {@link BinaryEventsWriter}. The result can be passed to
+ * {@link AnalyzeEvents} instead of the xml file, which avoids parsing and decompressing it on every analysis.
+ */
+@CommandLine.Command(
+        name = "convert-events",
+        description = "Convert an events file into a binary file for repeated analyses",
+        showDefaultValues = true
+)
+public class ConvertEvents implements MATSimAppCommand {
+
+    private static final Logger log = LogManager.getLogger(ConvertEvents.class);
+
+    @CommandLine.Option(names = "--events", description = "path to the xml events file", required = true)
+    private Path events;
+
+    @CommandLine.Option(names = "--output", description = "path of the binary events file", required = true)
+    private Path output;
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new ConvertEvents()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+
+        var manager = EventsUtils.createEventsManager();
+
+        try (var writer = new BinaryEventsWriter(output)) {
+            manager.addHandler(writer);
+            log.info("Converting events from " + events);
+            new ParallelEventsReader(manager).readFile(events.toString());
+        }
+
+        log.info("Done.");
+        return 0;
+    }
+}
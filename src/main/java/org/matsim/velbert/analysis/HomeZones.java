@@ -0,0 +1,66 @@
+package org.matsim.velbert.analysis;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.velbert.zones.ZoneLayer;
+
+import java.util.Arrays;
+
+/**
+ * Home zone of every person, i.e. the zone which contains the first activity of the person's selected plan. The zones
+ * are looked up once for the whole population and stored in an array indexed by {@link Id#index()} of the person.
+ */
+public class HomeZones {
+
+    private static final Logger log = LogManager.getLogger(HomeZones.class);
+
+    private final ZoneLayer zones;
+    private final int[] zoneByPerson;
+
+    private HomeZones(ZoneLayer zones, int[] zoneByPerson) {
+        this.zones = zones;
+        this.zoneByPerson = zoneByPerson;
+    }
+
+    public static HomeZones compute(Population population, ZoneLayer zones) {
+
+        log.info("Computing home zones for " + population.getPersons().size() + " persons");
+
+        var zoneByPerson = new int[Id.getNumberOfIds(Person.class)];
+        Arrays.fill(zoneByPerson, -1);
+
+        // every person writes to its own slot, so this is safe to do in parallel
+        population.getPersons().values().parallelStream()
+                .forEach(person -> {
+                    var activities = TripStructureUtils.getActivities(person.getSelectedPlan(), TripStructureUtils.StageActivityHandling.ExcludeStageActivities);
+                    if (activities.isEmpty() || activities.get(0).getCoord() == null) return;
+
+                    zoneByPerson[person.getId().index()] = zones.getZoneIndex(activities.get(0).getCoord());
+                });
+
+        return new HomeZones(zones, zoneByPerson);
+    }
+
+    public ZoneLayer getZones() {
+        return zones;
+    }
+
+    /**
+     * @return the index of the home zone within {@link #getZones()} or -1 if the person lives outside all zones
+     */
+    public int getZoneIndex(int personIndex) {
+        return personIndex < zoneByPerson.length ? zoneByPerson[personIndex] : -1;
+    }
+
+    public int getZoneIndex(Id<Person> personId) {
+        return getZoneIndex(personId.index());
+    }
+
+    public boolean livesInZones(Id<Person> personId) {
+        return getZoneIndex(personId) >= 0;
+    }
+}
@@ -0,0 +1,198 @@
+package org.matsim.velbert.analysis;
+
+import org.apache.commons.csv.CSVFormat;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Counts link volumes and congested travel times per link and time bin. Link enter and leave events are paired by
+ * vehicle. A vehicle is counted in the bin of its link leave event. The travel time is only known for vehicles which
+ * entered the link, not for vehicles which started on it.
+ * <p>
+ * Every counted link gets a row. All values are kept in flat arrays indexed by {@code row * numberOfBins + bin}. The
+ * only per-vehicle state is the time of the last link enter. Memory therefore depends on the number of counted links
+ * and the number of vehicles, but not on the number of events. Events after the last bin are counted in the last bin.
+ */
+public class LinkVolumeCube implements LinkEnterEventHandler, LinkLeaveEventHandler, VehicleLeavesTrafficEventHandler {
+
+    private final Network network;
+    private final double binSize;
+    private final int numberOfBins;
+
+    // row of each link index, -1 for links which are not counted, and the link index of each row
+    private final int[] rowByLink;
+    private final int[] linkByRow;
+
+    private final int[] volumes;
+    private final int[] travelTimeCounts;
+    private final double[] travelTimeSums;
+
+    private double[] openEnterTimes;
+
+    /**
+     * @param countedLinks link indices to count, or {@code null} to count all links of the network
+     */
+    public LinkVolumeCube(Network network, BitSet countedLinks, double binSize, int numberOfBins) {
+        this.network = network;
+        this.binSize = binSize;
+        this.numberOfBins = numberOfBins;
+
+        // rows in the order of the link indices, so that the output is sorted the same way in every run
+        this.rowByLink = new int[Id.getNumberOfIds(Link.class)];
+        Arrays.fill(rowByLink, -1);
+        this.linkByRow = network.getLinks().keySet().stream()
+                .mapToInt(Id::index)
+                .filter(linkIndex -> countedLinks == null || countedLinks.get(linkIndex))
+                .sorted()
+                .toArray();
+        for (var row = 0; row < linkByRow.length; row++) {
+            rowByLink[linkByRow[row]] = row;
+        }
+
+        var size = linkByRow.length * numberOfBins;
+        this.volumes = new int[size];
+        this.travelTimeCounts = new int[size];
+        this.travelTimeSums = new double[size];
+        this.openEnterTimes = new double[Math.max(16, Id.getNumberOfIds(Vehicle.class))];
+        Arrays.fill(openEnterTimes, Double.NaN);
+    }
+
+    /**
+     * Counts links of the network in hourly bins over 30 hours.
+     */
+    public LinkVolumeCube(Network network, BitSet countedLinks) {
+        this(network, countedLinks, 3600, 30);
+    }
+
+    public int getNumberOfBins() {
+        return numberOfBins;
+    }
+
+    public double getBinSize() {
+        return binSize;
+    }
+
+    public int getVolume(Id<Link> linkId, int bin) {
+        var row = getRow(linkId.index());
+        return row < 0 ? 0 : volumes[getIndex(row, bin)];
+    }
+
+    public int getVolume(Id<Link> linkId) {
+        var volume = 0;
+        for (var bin = 0; bin < numberOfBins; bin++) {
+            volume += getVolume(linkId, bin);
+        }
+        return volume;
+    }
+
+    /**
+     * @return mean travel time of the vehicles which entered and left the link, or NaN if there were none
+     */
+    public double getMeanTravelTime(Id<Link> linkId, int bin) {
+        var row = getRow(linkId.index());
+        if (row < 0) return Double.NaN;
+
+        var index = getIndex(row, bin);
+        if (travelTimeCounts[index] == 0) return Double.NaN;
+        return travelTimeSums[index] / travelTimeCounts[index];
+    }
+
+    @Override
+    public void handleEvent(LinkEnterEvent event) {
+
+        if (getRow(event.getLinkId().index()) < 0) return;
+
+        var vehicleIndex = event.getVehicleId().index();
+        if (vehicleIndex >= openEnterTimes.length) {
+            var oldLength = openEnterTimes.length;
+            openEnterTimes = Arrays.copyOf(openEnterTimes, Math.max(vehicleIndex + 1, oldLength + (oldLength >> 1)));
+            Arrays.fill(openEnterTimes, oldLength, openEnterTimes.length, Double.NaN);
+        }
+        openEnterTimes[vehicleIndex] = event.getTime();
+    }
+
+    @Override
+    public void handleEvent(LinkLeaveEvent event) {
+
+        var row = getRow(event.getLinkId().index());
+        if (row < 0) return;
+
+        var index = getIndex(row, getBin(event.getTime()));
+        volumes[index]++;
+
+        var vehicleIndex = event.getVehicleId().index();
+        if (vehicleIndex < openEnterTimes.length && !Double.isNaN(openEnterTimes[vehicleIndex])) {
+            travelTimeSums[index] += event.getTime() - openEnterTimes[vehicleIndex];
+            travelTimeCounts[index]++;
+            openEnterTimes[vehicleIndex] = Double.NaN;
+        }
+    }
+
+    @Override
+    public void handleEvent(VehicleLeavesTrafficEvent event) {
+
+        // the vehicle leaves traffic on the link it entered, so it will not leave this link
+        var vehicleIndex = event.getVehicleId().index();
+        if (vehicleIndex < openEnterTimes.length) openEnterTimes[vehicleIndex] = Double.NaN;
+    }
+
+    @Override
+    public void reset(int iteration) {
+        Arrays.fill(volumes, 0);
+        Arrays.fill(travelTimeCounts, 0);
+        Arrays.fill(travelTimeSums, 0);
+        Arrays.fill(openEnterTimes, Double.NaN);
+    }
+
+    /**
+     * Writes one row per link and bin with a non-zero volume.
+     */
+    public void write(Path filename) throws IOException {
+
+        try (var writer = IOUtils.getBufferedWriter(filename.toString()); var printer = CSVFormat.DEFAULT.withDelimiter(';')
+                .withHeader("link", "binStart", "volume", "meanTravelTime", "freeSpeedTravelTime").print(writer)) {
+
+            for (var row = 0; row < linkByRow.length; row++) {
+
+                var link = network.getLinks().get(Id.get(linkByRow[row], Link.class));
+                var freeSpeedTravelTime = link.getLength() / link.getFreespeed();
+                for (var bin = 0; bin < numberOfBins; bin++) {
+                    var index = getIndex(row, bin);
+                    if (volumes[index] == 0) continue;
+
+                    var meanTravelTime = travelTimeCounts[index] == 0 ? Double.NaN : travelTimeSums[index] / travelTimeCounts[index];
+                    printer.printRecord(link.getId(), bin * binSize, volumes[index], meanTravelTime, freeSpeedTravelTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the row of the link, or -1 if it is not counted
+     */
+    private int getRow(int linkIndex) {
+        return linkIndex < rowByLink.length ? rowByLink[linkIndex] : -1;
+    }
+
+    private int getBin(double time) {
+        return Math.max(0, Math.min(numberOfBins - 1, (int) (time / binSize)));
+    }
+
+    private int getIndex(int row, int bin) {
+        return row * numberOfBins + bin;
+    }
+}
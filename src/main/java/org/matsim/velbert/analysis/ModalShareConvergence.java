@@ -0,0 +1,108 @@
+package org.matsim.velbert.analysis;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.TerminationCriterion;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.replanning.ReplanningUtils;
+import org.matsim.core.replanning.StrategyManager;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Ends a run early once the modal shares recorded in the {@link ModalShareHistory} have converged, i.e. once no mode's
+ * share varied by more than the configured tolerance within the last {@code convergenceWindow} analyzed iterations.
+ * <p>
+ * Depending on the configured action, the run either stops right after the converged iteration, which then gets the
+ * outputs of a last iteration, or innovative strategies are switched off and the run continues for as many iterations
+ * as the innovation-off phase of the original configuration would have taken.
+ */
+public class ModalShareConvergence implements TerminationCriterion, IterationEndsListener {
+
+    private static final Logger log = LogManager.getLogger(ModalShareConvergence.class);
+
+    private final ModalShareHistory history;
+    private final StrategyManager strategyManager;
+    private final TripAnalyzerConfigGroup analyzerConfig;
+    private final Config config;
+
+    private int lastIteration;
+    private boolean isConverged = false;
+
+    @Inject
+    ModalShareConvergence(Config config, ModalShareHistory history, StrategyManager strategyManager) {
+        this.config = config;
+        this.history = history;
+        this.strategyManager = strategyManager;
+        this.analyzerConfig = ConfigUtils.addOrGetModule(config, TripAnalyzerConfigGroup.class);
+        this.lastIteration = config.controler().getLastIteration();
+    }
+
+    /**
+     * With the terminate action, every analyzed iteration which may complete the convergence window is a candidate for
+     * the last iteration, so that MATSim writes the outputs of the last iteration for it. Whether the run actually ends
+     * there is only known after the trips of the iteration were analyzed, see {@link #doTerminate(int)}.
+     */
+    @Override
+    public boolean mayTerminateAfterIteration(int iteration) {
+        return iteration >= lastIteration || (!isConverged
+                && analyzerConfig.getConvergenceAction() == TripAnalyzerConfigGroup.ConvergenceAction.terminate
+                && analyzerConfig.isAnalyzedIteration(iteration, false)
+                && history.size() + 1 >= analyzerConfig.getConvergenceWindow());
+    }
+
+    @Override
+    public boolean doTerminate(int iteration) {
+        return iteration >= lastIteration;
+    }
+
+    @Override
+    public void notifyIterationEnds(IterationEndsEvent event) {
+
+        if (isConverged || history.size() == 0 || history.getIteration(history.size() - 1) != event.getIteration()) return;
+
+        var range = history.getMaxShareRange(analyzerConfig.getConvergenceWindow());
+        if (range >= analyzerConfig.getConvergenceTolerance()) return;
+
+        isConverged = true;
+        log.info("Modal shares converged in iteration " + event.getIteration() + ". Largest change of a share within the last " +
+                analyzerConfig.getConvergenceWindow() + " analyzed iterations was " + range);
+
+        switch (analyzerConfig.getConvergenceAction()) {
+            case terminate:
+                lastIteration = Math.min(lastIteration, event.getIteration());
+                break;
+            case disableInnovation:
+                disableInnovation();
+                var innovationOffIterations = (int) Math.ceil((config.controler().getLastIteration() - config.controler().getFirstIteration())
+                        * (1 - config.strategy().getFractionOfIterationsToDisableInnovation()));
+                lastIteration = Math.min(lastIteration, event.getIteration() + innovationOffIterations);
+                break;
+            default:
+                throw new IllegalStateException("Unknown convergence action: " + analyzerConfig.getConvergenceAction());
+        }
+        log.info("Run will end after iteration " + lastIteration);
+    }
+
+    private void disableInnovation() {
+
+        var subpopulations = new HashSet<String>();
+        for (var settings : config.strategy().getStrategySettings()) {
+            subpopulations.add(settings.getSubpopulation());
+        }
+
+        for (var subpopulation : subpopulations) {
+            for (var strategy : new ArrayList<>(strategyManager.getStrategies(subpopulation))) {
+                if (!ReplanningUtils.isOnlySelector(strategy)) {
+                    log.info("Switching off " + strategy + " for subpopulation " + subpopulation);
+                    strategyManager.changeWeightOfStrategy(strategy, subpopulation, 0.0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.matsim.velbert.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Modal shares of all analyzed iterations so far. The shares are recorded by the {@link TripAnalyzerModule} after each
+ * analyzed mobsim. A resumed run starts with the shares of the earlier iterations from the time series of the run.
+ */
+public class ModalShareHistory {
+
+    private final List<String> modes;
+    private final List<Integer> iterations = new ArrayList<>();
+    private final List<double[]> shares = new ArrayList<>();
+
+    ModalShareHistory(List<String> modes) {
+        this.modes = modes;
+    }
+
+    public List<String> getModes() {
+        return modes;
+    }
+
+    void record(int iteration, TripCube cube) {
+
+        var total = cube.getTotalCount();
+        var sharesOfIteration = new double[modes.size()];
+        for (var i = 0; i < modes.size(); i++) {
+            sharesOfIteration[i] = total == 0 ? 0 : cube.getCount(modes.get(i)) / total;
+        }
+        record(iteration, sharesOfIteration);
+    }
+
+    /**
+     * @param sharesOfIteration share of each of the {@link #getModes() modes}
+     */
+    void record(int iteration, double[] sharesOfIteration) {
+        iterations.add(iteration);
+        shares.add(sharesOfIteration);
+    }
+
+    public int size() {
+        return iterations.size();
+    }
+
+    public int getIteration(int entry) {
+        return iterations.get(entry);
+    }
+
+    public double getShare(int entry, int modeIndex) {
+        return shares.get(entry)[modeIndex];
+    }
+
+    /**
+     * @return the largest difference between the highest and lowest share of any mode within the last
+     * {@code windowSize} recorded iterations. Returns {@link Double#POSITIVE_INFINITY} if fewer iterations were recorded.
+     */
+    public double getMaxShareRange(int windowSize) {
+
+        if (windowSize <= 0 || shares.size() < windowSize) return Double.POSITIVE_INFINITY;
+
+        var maxRange = 0.;
+        for (var modeIndex = 0; modeIndex < modes.size(); modeIndex++) {
+
+            var min = Double.POSITIVE_INFINITY;
+            var max = Double.NEGATIVE_INFINITY;
+            for (var entry = shares.size() - windowSize; entry < shares.size(); entry++) {
+                var share = shares.get(entry)[modeIndex];
+                min = Math.min(min, share);
+                max = Math.max(max, share);
+            }
+            maxRange = Math.max(maxRange, max - min);
+        }
+        return maxRange;
+    }
+}
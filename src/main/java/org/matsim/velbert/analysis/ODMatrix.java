@@ -0,0 +1,175 @@
+package org.matsim.velbert.analysis;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.commons.csv.CSVFormat;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.velbert.zones.ZoneLayer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts trips by origin zone, destination zone and main mode. Zones are identified by their id, so all features of a
+ * zone id, e.g. the polygons of a postal code area, count as one zone. Most zone pairs are never travelled between, so counts
+ * are kept in a sparse primitive map keyed by {@code (origin * numberOfIds + destination) * 256 + modeIndex}.
+ * <p>
+ * Trip ends with a coordinate of their own are looked up in the zone layer. Trip ends which lie on the coordinate of a
+ * link are looked up once per link and then taken from a cache. Trips starting or ending outside all zones are only
+ * counted in total. If {@link PersonWeights} are given, every trip is counted with the weight of its person.
+ */
+public class ODMatrix {
+
+    private static final int MAX_MODES = 256;
+    private static final int UNKNOWN_ZONE = -2;
+
+    private final ZoneLayer zones;
+    private final Network network;
+    private final PersonWeights weights;
+
+    private final List<String> modes = new ArrayList<>();
+    private final Object2IntOpenHashMap<String> modeIndices = new Object2IntOpenHashMap<>();
+    private final Long2DoubleOpenHashMap counts = new Long2DoubleOpenHashMap();
+
+    private int[] linkZones = new int[0];
+    private double tripsOutsideZones = 0;
+
+    public ODMatrix(ZoneLayer zones, Network network) {
+        this(zones, network, null);
+    }
+
+    /**
+     * @param weights weights of the persons, or {@code null} to count every trip once
+     */
+    public ODMatrix(ZoneLayer zones, Network network, PersonWeights weights) {
+        this.zones = zones;
+        this.network = network;
+        this.weights = weights;
+        this.modeIndices.defaultReturnValue(-1);
+    }
+
+    public void add(TripRecord trip) {
+
+        var weight = weights == null ? 1 : weights.getWeight(trip.getPersonIndex());
+        var origin = getIdIndex(trip.getStartLinkIndex(), trip.getStartX(), trip.getStartY());
+        var destination = getIdIndex(trip.getEndLinkIndex(), trip.getEndX(), trip.getEndY());
+        if (origin < 0 || destination < 0) {
+            tripsOutsideZones += weight;
+            return;
+        }
+        counts.addTo(getKey(origin, destination, getModeIndex(trip.getMode())), weight);
+    }
+
+    /**
+     * Adds all counts of the other matrix, which must use the same zones, to this one.
+     */
+    public void add(ODMatrix other) {
+
+        for (var entry : other.counts.long2DoubleEntrySet()) {
+            var key = entry.getLongKey();
+            var mode = other.modes.get((int) (key % MAX_MODES));
+            var pair = key / MAX_MODES;
+            counts.addTo(pair * MAX_MODES + getModeIndex(mode), entry.getDoubleValue());
+        }
+        tripsOutsideZones += other.tripsOutsideZones;
+    }
+
+    public double getCount(String origin, String destination, String mode) {
+
+        var originIndex = zones.getIdIndex(origin);
+        var destinationIndex = zones.getIdIndex(destination);
+        var modeIndex = modeIndices.getInt(mode);
+        if (originIndex < 0 || destinationIndex < 0 || modeIndex < 0) return 0;
+
+        return counts.get(getKey(originIndex, destinationIndex, modeIndex));
+    }
+
+    /**
+     * @return number of non-zero cells of the matrix
+     */
+    public int size() {
+        return counts.size();
+    }
+
+    /**
+     * @return weighted number of trips which started or ended outside all zones
+     */
+    public double getTripsOutsideZones() {
+        return tripsOutsideZones;
+    }
+
+    /**
+     * Clears the counts. The cached zones of the links are kept.
+     */
+    public void reset() {
+        counts.clear();
+        tripsOutsideZones = 0;
+    }
+
+    /**
+     * Writes one row per non-zero cell, ordered by origin, destination and mode index.
+     */
+    public void write(Path filename) throws IOException {
+
+        var keys = counts.keySet().toLongArray();
+        Arrays.sort(keys);
+        var ids = zones.getDistinctIds();
+        var numberOfIds = ids.size();
+
+        try (var writer = IOUtils.getBufferedWriter(filename.toString()); var printer = CSVFormat.DEFAULT.withDelimiter(';')
+                .withHeader("origin", "destination", "mode", "count").print(writer)) {
+
+            for (var key : keys) {
+                var pair = key / MAX_MODES;
+                var origin = (int) (pair / numberOfIds);
+                var destination = (int) (pair % numberOfIds);
+                printer.printRecord(ids.get(origin), ids.get(destination), modes.get((int) (key % MAX_MODES)), PersonWeights.formatCount(counts.get(key), weights));
+            }
+        }
+    }
+
+    private long getKey(int origin, int destination, int modeIndex) {
+        return ((long) origin * zones.getDistinctIds().size() + destination) * MAX_MODES + modeIndex;
+    }
+
+    /**
+     * @return the index of the id of the zone which contains the trip end, or -1 if it is outside all zones
+     */
+    private int getIdIndex(int linkIndex, double x, double y) {
+
+        if (linkIndex < 0) return getIdIndex(zones.getZoneIndex(x, y));
+
+        if (linkIndex >= linkZones.length) {
+            var oldLength = linkZones.length;
+            linkZones = Arrays.copyOf(linkZones, Math.max(linkIndex + 1, Id.getNumberOfIds(Link.class)));
+            Arrays.fill(linkZones, oldLength, linkZones.length, UNKNOWN_ZONE);
+        }
+        if (linkZones[linkIndex] == UNKNOWN_ZONE) {
+            var link = network.getLinks().get(Id.get(linkIndex, Link.class));
+            linkZones[linkIndex] = getIdIndex(link == null ? zones.getZoneIndex(x, y) : zones.getZoneIndex(link.getCoord()));
+        }
+        return linkZones[linkIndex];
+    }
+
+    private int getIdIndex(int zoneIndex) {
+        return zoneIndex < 0 ? -1 : zones.getIdIndex(zoneIndex);
+    }
+
+    private int getModeIndex(String mode) {
+
+        var index = modeIndices.getInt(mode);
+        if (index < 0) {
+            index = modes.size();
+            if (index == MAX_MODES) throw new IllegalStateException("OD matrix supports at most " + MAX_MODES + " modes");
+            modes.add(mode);
+            modeIndices.put(mode, index);
+        }
+        return index;
+    }
+}
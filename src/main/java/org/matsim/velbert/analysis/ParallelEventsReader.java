@@ -0,0 +1,245 @@
+package org.matsim.velbert.analysis;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsReaderXMLv1;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads an events file in three pipelined stages, each on its own thread:
+ * <ol>
+ *     <li>reading and decompressing the file into chunks of bytes,</li>
+ *     <li>parsing the chunks into batches of events,</li>
+ *     <li>dispatching the events to the handlers of the events manager, on the calling thread.</li>
+ * </ol>
+ * The stages are connected by bounded queues, so the memory footprint does not depend on the size of the file. Events
+ * are dispatched in file order, so handlers see the same sequence as with {@link EventsUtils#readEvents}.
+ */
+public class ParallelEventsReader {
+
+    private static final Logger log = LogManager.getLogger(ParallelEventsReader.class);
+
+    private static final byte[] END_OF_STREAM = new byte[0];
+    private static final List<Event> END_OF_EVENTS = List.of();
+
+    private final EventsManager manager;
+    private final int chunkSize;
+    private final int batchSize;
+    private final int queueCapacity;
+
+    private volatile Throwable failure;
+
+    public ParallelEventsReader(EventsManager manager) {
+        this(manager, 1 << 20, 10_000, 32);
+    }
+
+    /**
+     * @param chunkSize     number of bytes handed from the decompression to the parsing stage at once
+     * @param batchSize     number of events handed from the parsing to the dispatching stage at once
+     * @param queueCapacity number of chunks and batches which may be queued between two stages
+     */
+    public ParallelEventsReader(EventsManager manager, int chunkSize, int batchSize, int queueCapacity) {
+        this.manager = manager;
+        this.chunkSize = chunkSize;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void readFile(String filename) {
+
+        failure = null;
+        BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<List<Event>> batches = new ArrayBlockingQueue<>(queueCapacity);
+
+        var decompressor = new Thread(() -> decompress(filename, chunks), "events-decompress");
+        var parser = new Thread(() -> parse(chunks, batches), "events-parse");
+        decompressor.setDaemon(true);
+        parser.setDaemon(true);
+        decompressor.start();
+        parser.start();
+
+        manager.initProcessing();
+        try {
+            while (true) {
+                var batch = batches.poll(100, TimeUnit.MILLISECONDS);
+                if (batch == null) {
+                    if (failure != null) break;
+                    continue;
+                }
+                if (batch == END_OF_EVENTS) break;
+
+                for (var event : batch) {
+                    manager.processEvent(event);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(e);
+            throw e;
+        }
+        manager.finishProcessing();
+
+        if (failure != null) throw new RuntimeException("Failed to read events from " + filename, failure);
+    }
+
+    private void decompress(String filename, BlockingQueue<byte[]> chunks) {
+
+        try (var stream = IOUtils.getInputStream(IOUtils.resolveFileOrResource(filename))) {
+
+            var chunk = new byte[chunkSize];
+            var length = 0;
+            int read;
+            while ((read = stream.read(chunk, length, chunk.length - length)) != -1) {
+                length += read;
+                if (length == chunk.length) {
+                    if (!put(chunks, chunk)) return;
+                    chunk = new byte[chunkSize];
+                    length = 0;
+                }
+            }
+            if (length > 0) {
+                if (!put(chunks, Arrays.copyOf(chunk, length))) return;
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        } finally {
+            put(chunks, END_OF_STREAM);
+        }
+    }
+
+    private void parse(BlockingQueue<byte[]> chunks, BlockingQueue<List<Event>> batches) {
+
+        // parse into a private events manager which only collects the events into batches
+        var collector = EventsUtils.createEventsManager();
+        var batcher = new Batcher(batches);
+        collector.addHandler(batcher);
+
+        try {
+            collector.initProcessing();
+            new EventsReaderXMLv1(collector).parse(new ChunkInputStream(chunks));
+            collector.finishProcessing();
+            batcher.flush();
+        } catch (RuntimeException e) {
+            fail(e);
+        } finally {
+            put(batches, END_OF_EVENTS);
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null) {
+            log.error("Reading events failed", e);
+            failure = e;
+        }
+    }
+
+    /**
+     * Puts the element into the queue, but gives up if one of the stages failed, so that no thread waits forever on a
+     * queue nobody consumes anymore.
+     *
+     * @return whether the element was put into the queue
+     */
+    private <T> boolean put(BlockingQueue<T> queue, T element) {
+        try {
+            while (!queue.offer(element, 100, TimeUnit.MILLISECONDS)) {
+                if (failure != null) return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+            return false;
+        }
+    }
+
+    private class Batcher implements BasicEventHandler {
+
+        private final BlockingQueue<List<Event>> batches;
+        private List<Event> batch = new ArrayList<>(batchSize);
+
+        private Batcher(BlockingQueue<List<Event>> batches) {
+            this.batches = batches;
+        }
+
+        @Override
+        public void handleEvent(Event event) {
+            batch.add(event);
+            if (batch.size() == batchSize) flush();
+        }
+
+        private void flush() {
+            if (batch.isEmpty()) return;
+            if (!put(batches, batch)) throw new RuntimeException("Dispatching events failed. Stop parsing.");
+            batch = new ArrayList<>(batchSize);
+        }
+    }
+
+    /**
+     * Input stream over the chunks coming from the decompression stage.
+     */
+    private class ChunkInputStream extends InputStream {
+
+        private final BlockingQueue<byte[]> chunks;
+        private byte[] current = new byte[0];
+        private int position = 0;
+
+        private ChunkInputStream(BlockingQueue<byte[]> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureData()) return -1;
+            return current[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if (!ensureData()) return -1;
+
+            var count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        private boolean ensureData() throws IOException {
+
+            if (current == END_OF_STREAM) return false;
+
+            while (position == current.length) {
+                byte[] next;
+                try {
+                    next = chunks.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+                if (next == null) {
+                    if (failure != null) throw new IOException("Decompressing events failed. Stop parsing.");
+                    continue;
+                }
+                current = next;
+                position = 0;
+                if (current == END_OF_STREAM) return false;
+            }
+            return true;
+        }
+    }
+}
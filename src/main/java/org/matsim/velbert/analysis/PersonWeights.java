@@ -0,0 +1,62 @@
+package org.matsim.velbert.analysis;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+
+import java.util.Arrays;
+
+/**
+ * Expansion weight of every person, taken from the {@value #ATTRIBUTE} attribute written by
+ * {@code prepare stratified-downsample-population}. Persons without the attribute have weight 1. The weights are stored
+ * in an array indexed by {@link Id#index()} of the person, like {@link HomeZones}.
+ */
+public class PersonWeights {
+
+    public static final String ATTRIBUTE = "sampleWeight";
+
+    private static final Logger log = LogManager.getLogger(PersonWeights.class);
+
+    private final double[] weightByPerson;
+
+    private PersonWeights(double[] weightByPerson) {
+        this.weightByPerson = weightByPerson;
+    }
+
+    /**
+     * @return the weights of the population, or {@code null} if no person has a weight
+     */
+    public static PersonWeights compute(Population population) {
+
+        var weightByPerson = new double[Id.getNumberOfIds(Person.class)];
+        Arrays.fill(weightByPerson, 1);
+
+        var weightedPersons = 0;
+        for (var person : population.getPersons().values()) {
+            var weight = person.getAttributes().getAttribute(ATTRIBUTE);
+            if (weight == null) continue;
+
+            weightByPerson[person.getId().index()] = ((Number) weight).doubleValue();
+            weightedPersons++;
+        }
+
+        if (weightedPersons == 0) return null;
+
+        log.info("Using sample weights of " + weightedPersons + " of " + population.getPersons().size() + " persons");
+        return new PersonWeights(weightByPerson);
+    }
+
+    public double getWeight(int personIndex) {
+        return personIndex < weightByPerson.length ? weightByPerson[personIndex] : 1;
+    }
+
+    /**
+     * @return the count as a whole number if it was counted without weights, so that unweighted tables keep their
+     * integral counts
+     */
+    static Object formatCount(double count, PersonWeights weights) {
+        return weights == null ? (Object) Math.round(count) : (Object) count;
+    }
+}
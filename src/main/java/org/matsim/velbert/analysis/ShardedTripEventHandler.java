@@ -0,0 +1,56 @@
+package org.matsim.velbert.analysis;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.api.experimental.events.EventsManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits trip collection into shards, so that it can run with the parallel events handling of MATSim. Persons are
+ * assigned to shard {@code personIndex % numberOfShards}. Every shard is a {@link TripEventHandler} of its own, which
+ * receives all events but only keeps state of its own persons.
+ * <p>
+ * The parallel events manager calls each registered handler from one thread only, so the shards need no locks as long as
+ * listeners added to a shard only touch state of that shard. Results of the shards are merged after the events are
+ * processed.
+ */
+public class ShardedTripEventHandler {
+
+    private final List<TripEventHandler> shards = new ArrayList<>();
+
+    public ShardedTripEventHandler(Network network, boolean storeTrips, int numberOfShards) {
+
+        if (numberOfShards < 1) throw new IllegalArgumentException("Number of shards must be at least 1 but was " + numberOfShards);
+
+        for (var shard = 0; shard < numberOfShards; shard++) {
+            shards.add(new TripEventHandler(network, storeTrips, shard, numberOfShards));
+        }
+    }
+
+    public int getNumberOfShards() {
+        return shards.size();
+    }
+
+    public TripEventHandler getShard(int shard) {
+        return shards.get(shard);
+    }
+
+    public void addTo(EventsManager manager) {
+        for (var shard : shards) {
+            manager.addHandler(shard);
+        }
+    }
+
+    public void removeFrom(EventsManager manager) {
+        for (var shard : shards) {
+            manager.removeHandler(shard);
+        }
+    }
+
+    public void reset(int iteration) {
+        for (var shard : shards) {
+            shard.reset(iteration);
+        }
+    }
+}
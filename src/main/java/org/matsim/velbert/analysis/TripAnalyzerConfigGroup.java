@@ -0,0 +1,119 @@
+package org.matsim.velbert.analysis;
+
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ReflectiveConfigGroup;
+
+import java.util.Arrays;
+import java.util.Map;
+
+public class TripAnalyzerConfigGroup extends ReflectiveConfigGroup {
+
+    public static final String GROUP_NAME = "tripAnalyzer";
+
+    private static final String ANALYSIS_INTERVAL = "analysisInterval";
+    private static final String CONVERGENCE_WINDOW = "convergenceWindow";
+    private static final String CONVERGENCE_TOLERANCE = "convergenceTolerance";
+    private static final String CONVERGENCE_ACTION = "convergenceAction";
+    private static final String COMPRESS_OUTPUT = "compressOutput";
+    private static final String OD_MATRIX = "odMatrix";
+
+    public enum ConvergenceAction {terminate, disableInnovation}
+
+    private int analysisInterval = 0;
+    private int convergenceWindow = 0;
+    private double convergenceTolerance = 0.005;
+    private ConvergenceAction convergenceAction = ConvergenceAction.disableInnovation;
+    private boolean compressOutput = false;
+    private boolean odMatrix = false;
+
+    public TripAnalyzerConfigGroup() {
+        super(GROUP_NAME);
+    }
+
+    @StringGetter(ANALYSIS_INTERVAL)
+    public int getAnalysisInterval() {
+        return analysisInterval;
+    }
+
+    @StringSetter(ANALYSIS_INTERVAL)
+    public void setAnalysisInterval(int analysisInterval) {
+        this.analysisInterval = analysisInterval;
+    }
+
+    @StringGetter(CONVERGENCE_WINDOW)
+    public int getConvergenceWindow() {
+        return convergenceWindow;
+    }
+
+    @StringSetter(CONVERGENCE_WINDOW)
+    public void setConvergenceWindow(int convergenceWindow) {
+        this.convergenceWindow = convergenceWindow;
+    }
+
+    @StringGetter(CONVERGENCE_TOLERANCE)
+    public double getConvergenceTolerance() {
+        return convergenceTolerance;
+    }
+
+    @StringSetter(CONVERGENCE_TOLERANCE)
+    public void setConvergenceTolerance(double convergenceTolerance) {
+        this.convergenceTolerance = convergenceTolerance;
+    }
+
+    @StringGetter(CONVERGENCE_ACTION)
+    public ConvergenceAction getConvergenceAction() {
+        return convergenceAction;
+    }
+
+    @StringSetter(CONVERGENCE_ACTION)
+    public void setConvergenceAction(ConvergenceAction convergenceAction) {
+        this.convergenceAction = convergenceAction;
+    }
+
+    @StringGetter(COMPRESS_OUTPUT)
+    public boolean isCompressOutput() {
+        return compressOutput;
+    }
+
+    @StringSetter(COMPRESS_OUTPUT)
+    public void setCompressOutput(boolean compressOutput) {
+        this.compressOutput = compressOutput;
+    }
+
+    @StringGetter(OD_MATRIX)
+    public boolean isOdMatrix() {
+        return odMatrix;
+    }
+
+    @StringSetter(OD_MATRIX)
+    public void setOdMatrix(boolean odMatrix) {
+        this.odMatrix = odMatrix;
+    }
+
+    public boolean isAnalyzedIteration(int iteration, boolean isLastIteration) {
+        return isLastIteration || (analysisInterval > 0 && iteration % analysisInterval == 0);
+    }
+
+    @Override
+    protected void checkConsistency(Config config) {
+        super.checkConsistency(config);
+        if (convergenceWindow > 0 && analysisInterval <= 0)
+            throw new IllegalArgumentException("The convergence check needs a positive " + ANALYSIS_INTERVAL + ", preferably 1.");
+    }
+
+    @Override
+    public Map<String, String> getComments() {
+        var comments = super.getComments();
+        comments.put(ANALYSIS_INTERVAL, "Run the trip analysis every n-th iteration and append the modal shares to a time series " +
+                "in the output directory. The last iteration is always analyzed. 0 means: analyze the last iteration only.");
+        comments.put(CONVERGENCE_WINDOW, "Number of analyzed iterations over which the modal shares must be stable to consider " +
+                "the run converged. 0 switches the convergence check off.");
+        comments.put(CONVERGENCE_TOLERANCE, "The run is converged if no mode's share varies by more than this within the convergence window.");
+        comments.put(CONVERGENCE_ACTION, "What to do once the run is converged. Possible values: " + Arrays.toString(ConvergenceAction.values()) +
+                ". 'disableInnovation' switches off innovative strategies and continues for the length of the innovation-off phase.");
+        comments.put(OD_MATRIX, "Write an origin-destination matrix between the OD zones of the run script in every analyzed iteration. " +
+                "Off by default, since the matrix grows with the square of the number of zones.");
+        comments.put(COMPRESS_OUTPUT, "Write the tables of every analyzed iteration gzipped. The modal share time series is never compressed.");
+        return comments;
+    }
+}
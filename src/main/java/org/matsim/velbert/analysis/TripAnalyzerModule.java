@@ -1,186 +1,497 @@
 package org.matsim.velbert.analysis;
 
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
 import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.TerminationCriterion;
 import org.matsim.core.controler.events.AfterMobsimEvent;
 import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.events.StartupEvent;
 import org.matsim.core.controler.listener.AfterMobsimListener;
 import org.matsim.core.controler.listener.BeforeMobsimListener;
-import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.scoring.ExperiencedPlansService;
-import org.matsim.core.utils.collections.Tuple;
+import org.matsim.core.controler.listener.StartupListener;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.velbert.zones.ZoneLayer;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collection;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 public class TripAnalyzerModule extends AbstractModule {
 
     private static final Logger log = LogManager.getLogger(TripAnalyzerModule.class);
 
+    // we want our tables to always look the same
+    static final List<String> MODES = List.of(TransportMode.car, TransportMode.ride, TransportMode.pt, TransportMode.bike, TransportMode.walk);
+
     private final Predicate<Id<Person>> filterPerson;
+    private final ZoneLayer homeZones;
+    private final ZoneLayer odZones;
 
+    /**
+     * Analyzes only persons accepted by the filter. The filter is evaluated once for every person of the population on
+     * the controler thread before the first analyzed mobsim, so it needn't be thread safe.
+     */
     public TripAnalyzerModule(Predicate<Id<Person>> filterPerson) {
         this.filterPerson = filterPerson;
+        this.homeZones = null;
+        this.odZones = null;
+    }
+
+    /**
+     * Analyzes only persons whose first activity lies within one of the zones. The home zones of all persons are
+     * computed once when the controler is set up, so that filtering a person is an array lookup.
+     */
+    public TripAnalyzerModule(ZoneLayer homeZones) {
+        this(homeZones, null);
+    }
+
+    /**
+     * Additionally writes an origin-destination matrix between the given zones for every analyzed iteration, if it is
+     * switched on in the {@link TripAnalyzerConfigGroup}. The matrix contains the same persons as the modal share.
+     */
+    public TripAnalyzerModule(ZoneLayer homeZones, ZoneLayer odZones) {
+        this.filterPerson = null;
+        this.homeZones = homeZones;
+        this.odZones = odZones;
     }
 
     @Override
     public void install() {
-        var filter = new PersonFilter() {
-            @Override
-            public boolean filter(Id<Person> id) {
-                return filterPerson.test(id);
-            }
-        };
+        var analyzerConfig = ConfigUtils.addOrGetModule(getConfig(), TripAnalyzerConfigGroup.class);
         addControlerListenerBinding().to(MobsimHandler.class);
-        bind(PersonFilter.class).toInstance(filter);
+        bind(AnalysisOutputService.class).in(Singleton.class);
+        addControlerListenerBinding().to(AnalysisOutputService.class);
+        bind(ModalShareHistory.class).toInstance(new ModalShareHistory(MODES));
+        bind(AnalysisZones.class).toProvider(new AnalysisZonesProvider(homeZones, odZones)).in(Singleton.class);
+
+        if (analyzerConfig.getConvergenceWindow() > 0) {
+            bind(ModalShareConvergence.class).in(Singleton.class);
+            bind(TerminationCriterion.class).to(ModalShareConvergence.class);
+            addControlerListenerBinding().to(ModalShareConvergence.class);
+        }
+
+        if (homeZones == null) {
+            var filter = new PersonFilter() {
+                @Override
+                public boolean filter(Id<Person> id) {
+                    return filterPerson.test(id);
+                }
+            };
+            bind(PersonFilter.class).toInstance(filter);
+        } else {
+            bind(PersonFilter.class).toProvider(HomeZoneFilterProvider.class).in(Singleton.class);
+        }
     }
 
     interface PersonFilter {
         boolean filter(Id<Person> id);
     }
 
-    private static class MobsimHandler implements BeforeMobsimListener, AfterMobsimListener {
+    /**
+     * Zones and person weights used by the analysis. Any of them may be null.
+     */
+    private static class AnalysisZones {
 
-        @Inject
-        private EventsManager eventsManager;
+        private final HomeZones homeZones;
+        private final ZoneLayer odZones;
+        private final PersonWeights weights;
 
-        @Inject
-        private Network network;
+        private AnalysisZones(HomeZones homeZones, ZoneLayer odZones, PersonWeights weights) {
+            this.homeZones = homeZones;
+            this.odZones = odZones;
+            this.weights = weights;
+        }
+    }
+
+    private static class AnalysisZonesProvider implements Provider<AnalysisZones> {
 
         @Inject
-        private OutputDirectoryHierarchy outputDirectoryHierarchy;
+        private Population population;
 
         @Inject
-        private PersonFilter filter;
+        private Config config;
 
-        private TripEventHandler handler;
+        private final ZoneLayer homeZones;
+        private final ZoneLayer odZones;
+
+        private AnalysisZonesProvider(ZoneLayer homeZones, ZoneLayer odZones) {
+            this.homeZones = homeZones;
+            this.odZones = odZones;
+        }
 
         @Override
-        public void notifyBeforeMobsim(BeforeMobsimEvent event) {
+        public AnalysisZones get() {
+            var odMatrix = ConfigUtils.addOrGetModule(config, TripAnalyzerConfigGroup.class).isOdMatrix();
+            if (odMatrix && odZones == null)
+                log.warn("The OD matrix is switched on, but the run script doesn't give any OD zones.");
 
-            if (event.isLastIteration()) {
-                this.handler = new TripEventHandler(network);
-                eventsManager.addHandler(this.handler);
-            }
+            return new AnalysisZones(homeZones == null ? null : HomeZones.compute(population, homeZones), odMatrix ? odZones : null,
+                    PersonWeights.compute(population));
         }
+    }
+
+    private static class HomeZoneFilterProvider implements Provider<PersonFilter> {
+
+        @Inject
+        private AnalysisZones zones;
 
         @Override
-        public void notifyAfterMobsim(AfterMobsimEvent event) {
+        public PersonFilter get() {
+            return zones.homeZones::livesInZones;
+        }
+    }
+
+    static void modalShare(TripCube cube, int numberOfPersons, Path filename) {
+
+        var totalNumberOfTrips = cube.getTotalCount();
+        var countsByMode = cube.rollUp(TripCube.Dimension.MODE, TripCube.Slice.all());
+
+        try (var writer = IOUtils.getBufferedWriter(filename.toString()); var printer = CSVFormat.DEFAULT.withDelimiter(';').withHeader("mode", "count", "share").print(writer)) {
+
+            log.info("Total number of trips analyzed: " + totalNumberOfTrips + " conducted by " + numberOfPersons);
+
+            for (var modeIndex = 0; modeIndex < countsByMode.length; modeIndex++) {
+
+                var mode = cube.getLabel(TripCube.Dimension.MODE, modeIndex);
+                var count = countsByMode[modeIndex];
+                var share = getShare(count, totalNumberOfTrips);
+                if (log.isDebugEnabled()) log.debug(mode + ": " + count + " (" + share * 100 + "%)");
+
+                printer.printRecord(mode, PersonWeights.formatCount(count, cube.getWeights()), share);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void modalDistanceShare(TripCube cube, Path filename) {
+
+        // we want our table to always look the same
+        var distanceClasses = TripCube.DISTANCE_CLASSES;
+
+        try (var writer = IOUtils.getBufferedWriter(filename.toString()); var printer = CSVFormat.DEFAULT.withDelimiter(';').withHeader("distance", "mode", "value", "shareOfDistance").print(writer)) {
+
+            var countsByDistanceClass = cube.rollUp(TripCube.Dimension.DISTANCE_CLASS, TripCube.Slice.all());
+
+            //print values
+            for(var mode : MODES) {
+                for (var distanceClass = 0; distanceClass < distanceClasses.size(); distanceClass++) {
+
+                    var totalNumberForDistance = countsByDistanceClass[distanceClass];
+                    var distanceAndModeValue = cube.getCount(mode, distanceClass);
+                    var share = getShare(distanceAndModeValue, totalNumberForDistance);
+                    if (log.isDebugEnabled())
+                        log.debug(mode + ", " + distanceClasses.get(distanceClass) + ": " + distanceAndModeValue + ", " + totalNumberForDistance + ", " + share);
+
+                    printer.printRecord(distanceClasses.get(distanceClass), mode, PersonWeights.formatCount(distanceAndModeValue, cube.getWeights()), share);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+    }
+
+    /**
+     * Writes the modal share within every entry of the given dimension, e.g. the modal share per trip purpose.
+     */
+    static void modalShareBy(TripCube cube, TripCube.Dimension dimension, Path filename) {
+
+        var counts = cube.rollUp(dimension, TripCube.Dimension.MODE, TripCube.Slice.all());
+
+        try (var writer = IOUtils.getBufferedWriter(filename.toString()); var printer = CSVFormat.DEFAULT.withDelimiter(';')
+                .withHeader(dimension.name().toLowerCase(), "mode", "count", "share").print(writer)) {
+
+            for (var entry = 0; entry < counts.length; entry++) {
+
+                double total = 0;
+                for (var count : counts[entry]) {
+                    total += count;
+                }
+                if (total == 0) continue;
+
+                for (var modeIndex = 0; modeIndex < counts[entry].length; modeIndex++) {
+                    var count = counts[entry][modeIndex];
+                    printer.printRecord(cube.getLabel(dimension, entry), cube.getLabel(TripCube.Dimension.MODE, modeIndex),
+                            PersonWeights.formatCount(count, cube.getWeights()), getShare(count, total));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes all tables of the trip analysis from the cube.
+     */
+    static void writeTables(TripCube cube, int numberOfPersons, Function<String, Path> filenames) {
+        modalShare(cube, numberOfPersons, filenames.apply("modal-share.csv"));
+        modalDistanceShare(cube, filenames.apply("modal-distance-share.csv"));
+        modalShareBy(cube, TripCube.Dimension.PURPOSE, filenames.apply("modal-share-by-purpose.csv"));
+        modalShareBy(cube, TripCube.Dimension.HOUR, filenames.apply("modal-share-by-hour.csv"));
+        modalShareBy(cube, TripCube.Dimension.HOME_ZONE, filenames.apply("modal-share-by-home-zone.csv"));
+    }
 
-            if (event.isLastIteration()) {
-                var tripsByPerson = handler.getTripsByPerson();
-                var filteredEntries = tripsByPerson.entrySet().stream()
-                        .filter(entry -> filter.filter(entry.getKey()))
-                        .collect(Collectors.toSet());
+    private static double getShare(double count, double total) {
+        return total == 0 ? 0 : count / total;
+    }
 
+    /**
+     * Removes the rows of the given and all later iterations from an existing time series, e.g. one left by an earlier
+     * run into the same output directory or by the crashed part of a resumed run.
+     *
+     * @return the rows which were kept
+     */
+    static List<CSVRecord> truncateTimeSeries(Path filename, int firstIteration) throws IOException {
+
+        if (!Files.exists(filename)) return List.of();
+
+        List<CSVRecord> kept = new ArrayList<>();
+        String[] header;
+        try (var reader = Files.newBufferedReader(filename); var parser = CSVFormat.DEFAULT.withDelimiter(';').withFirstRecordAsHeader().parse(reader)) {
+            header = parser.getHeaderNames().toArray(new String[0]);
+            for (var record : parser) {
+                if (Integer.parseInt(record.get(0)) < firstIteration) kept.add(record);
+            }
+        }
 
-                modalShare(filteredEntries, Paths.get(outputDirectoryHierarchy.getIterationFilename(event.getIteration(), "modal-share.csv")));
-                modalDistanceShare(filteredEntries, Paths.get(outputDirectoryHierarchy.getIterationFilename(event.getIteration(), "modal-distance-share.csv")));
+        try (var writer = Files.newBufferedWriter(filename); var printer = CSVFormat.DEFAULT.withDelimiter(';').withHeader(header).print(writer)) {
+            for (var record : kept) {
+                printer.printRecord(record);
             }
         }
+        log.info("Kept " + kept.size() + " rows of iterations before " + firstIteration + " in " + filename);
+        return kept;
+    }
+
+    private static class MobsimHandler implements StartupListener, BeforeMobsimListener, AfterMobsimListener {
+
+        @Inject
+        private EventsManager eventsManager;
+
+        @Inject
+        private Network network;
 
-        private void modalShare(Set<Map.Entry<Id<Person>, List<TripEventHandler.Trip>>> filteredEntries, Path filename) {
+        @Inject
+        private OutputDirectoryHierarchy outputDirectoryHierarchy;
 
-            var modalSplit = filteredEntries.stream()
-                    .map(Map.Entry::getValue)
-                    .flatMap(Collection::stream)
-                    .filter(trip -> trip.getStartCoord() != null && trip.getEndCoord() != null)
-                    .map(TripEventHandler.Trip::getMode)
-                    .collect(Collectors.toMap(mode -> mode, mode -> 1, Integer::sum));
+        @Inject
+        private PersonFilter filter;
 
-            var totalNumberOfTrips = modalSplit.values().stream()
-                    .mapToInt(value -> value)
-                    .sum();
+        @Inject
+        private Population population;
 
-            try (var writer = Files.newBufferedWriter(filename); var printer = CSVFormat.DEFAULT.withDelimiter(';').withHeader("mode", "count", "share").print(writer)) {
+        @Inject
+        private ModalShareHistory history;
 
-                log.info("-------------------------------------------------------------------- Trip Analyzer Module -----------------------------------------------------------------------");
-                log.info("Total number of trips analyzed: " + totalNumberOfTrips + " conducted by " + filteredEntries.size());
+        @Inject
+        private AnalysisZones zones;
 
-                for (var entry : modalSplit.entrySet()) {
+        @Inject
+        private AnalysisOutputService output;
+
+        private final TripAnalyzerConfigGroup analyzerConfig;
+        private final int firstIteration;
+        private final int numberOfShards;
+
+        private ShardedTripEventHandler handler;
+        private ShardCounter[] shardCounters;
+
+        // read by all shards, written only before the first analyzed mobsim
+        private final BitSet acceptedPersons = new BitSet();
 
-                    double share = (double)entry.getValue() / totalNumberOfTrips;
-                    log.info(entry.getKey() + ": " + entry.getValue() + " (" + share * 100 + "%)");
+        @Inject
+        MobsimHandler(Config config) {
+            this.analyzerConfig = ConfigUtils.addOrGetModule(config, TripAnalyzerConfigGroup.class);
+            this.firstIteration = config.controler().getFirstIteration();
+
+            // one shard per events handling thread, so that the shards can be handled in parallel
+            var numberOfThreads = config.parallelEventHandling().getNumberOfThreads();
+            this.numberOfShards = numberOfThreads == null ? 1 : Math.max(1, numberOfThreads);
+        }
 
-                    printer.printRecord(entry.getKey(), entry.getValue(), share);
+        @Override
+        public void notifyStartup(StartupEvent event) {
+
+            // rows are only appended during the run, so rows of this run's iterations must not exist beforehand. The
+            // kept rows are those of the iterations before a resumed run, which count for its convergence check.
+            try {
+                for (var record : truncateTimeSeries(getTimeSeriesFilename(), firstIteration)) {
+                    var shares = new double[MODES.size()];
+                    for (var i = 0; i < MODES.size(); i++) {
+                        shares[i] = Double.parseDouble(record.get(MODES.get(i)));
+                    }
+                    history.record(Integer.parseInt(record.get(0)), shares);
                 }
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new UncheckedIOException(e);
             }
         }
 
-        private void modalDistanceShare(Set<Map.Entry<Id<Person>, List<TripEventHandler.Trip>>> filteredEntries, Path filename) {
+        @Override
+        public void notifyBeforeMobsim(BeforeMobsimEvent event) {
 
-            var distancesByMode = filteredEntries.stream()
-                    .map(Map.Entry::getValue)
-                    .flatMap(Collection::stream)
-                    .filter(trip -> trip.getStartCoord() != null && trip.getEndCoord() != null)
-                    .map(trip -> Tuple.of(trip.getMode(), getDistanceKey(trip.getDistance())))
-                    .collect(Collectors.groupingBy(Tuple::getFirst, Collectors.toMap(Tuple::getSecond, t -> 1, Integer::sum, Object2IntOpenHashMap::new)));
+            if (!analyzerConfig.isAnalyzedIteration(event.getIteration(), event.isLastIteration())) return;
 
-            var numberOfTripsPerDistanceClass = filteredEntries.stream()
-                    .map(Map.Entry::getValue)
-                    .flatMap(Collection::stream)
-                    .filter(trip -> trip.getStartCoord() != null && trip.getEndCoord() != null)
-                    .map(trip -> getDistanceKey(trip.getDistance()))
-                    .collect(Collectors.toMap(distance -> distance, distance -> 1, Integer::sum, Object2IntOpenHashMap::new));
+            // handler and counters are created once and reused in every analyzed iteration
+            if (handler == null) {
+                for (var personId : population.getPersons().keySet()) {
+                    if (filter.filter(personId)) acceptedPersons.set(personId.index());
+                }
 
-            // we want our table to always look the same
-            var distanceClasses = List.of("<1", "1 to 3", "3 to 5", "5 to 10", ">10");
-            var modes = List.of(TransportMode.car, TransportMode.ride, TransportMode.pt, TransportMode.bike, TransportMode.walk);
+                this.handler = new ShardedTripEventHandler(network, false, numberOfShards);
+                this.shardCounters = new ShardCounter[numberOfShards];
+                for (var shard = 0; shard < numberOfShards; shard++) {
+                    var shardCounter = new ShardCounter();
+                    shardCounters[shard] = shardCounter;
+                    handler.getShard(shard).addTripListener(trip -> {
+                        if (shardCounter.isAccepted(trip)) {
+                            shardCounter.cube.add(trip);
+                            if (shardCounter.odMatrix != null) shardCounter.odMatrix.add(trip);
+                        }
+                    });
+                }
+            }
+            handler.reset(event.getIteration());
+            for (var shardCounter : shardCounters) {
+                shardCounter.cube.reset();
+                if (shardCounter.odMatrix != null) shardCounter.odMatrix.reset();
+                shardCounter.countedPersons.clear();
+            }
+            handler.addTo(eventsManager);
+        }
 
+        @Override
+        public void notifyAfterMobsim(AfterMobsimEvent event) {
 
-            log.info("-------------------------------------------------------------------- Trip Analyzer Module -----------------------------------------------------------------------");
+            if (!analyzerConfig.isAnalyzedIteration(event.getIteration(), event.isLastIteration())) return;
+
+            // don't let the handler listen to iterations which are not analyzed
+            handler.removeFrom(eventsManager);
+
+            // persons are disjoint between the shards, so counts and accepted persons can simply be added up. The merged
+            // results are new objects for every iteration, since they are written in the background while the shards
+            // are already reused.
+            var iteration = event.getIteration();
+            var cube = new TripCube(zones.homeZones, zones.weights);
+            var odMatrix = zones.odZones == null ? null : new ODMatrix(zones.odZones, network, zones.weights);
+            var numberOfPersons = 0;
+            for (var shardCounter : shardCounters) {
+                cube.add(shardCounter.cube);
+                if (odMatrix != null) odMatrix.add(shardCounter.odMatrix);
+                numberOfPersons += shardCounter.countedPersons.cardinality();
+            }
+
+            // the history is needed by the convergence check at the end of this iteration
+            history.record(iteration, cube);
+
+            var persons = numberOfPersons;
+            output.submit(() -> {
+                writeTables(cube, persons, name -> output.getFilename(Paths.get(outputDirectoryHierarchy.getIterationFilename(iteration, name))));
+                appendTimeSeries(iteration, cube, getTimeSeriesFilename());
+                if (odMatrix != null) writeODMatrix(iteration, odMatrix);
+            });
+        }
 
-            try (var writer = Files.newBufferedWriter(filename); var printer = CSVFormat.DEFAULT.withDelimiter(';').withHeader("distance", "mode", "value", "shareOfDistance").print(writer)) {
+        private Path getTimeSeriesFilename() {
+            return Paths.get(outputDirectoryHierarchy.getOutputFilename("modal-share-timeseries.csv"));
+        }
 
-                //print values
-                for(var mode : modes) {
+        private void writeODMatrix(int iteration, ODMatrix odMatrix) {
 
-                    // get the distanceClasses for mode
-                    var distances = distancesByMode.get(mode);
+            log.info("OD matrix has " + odMatrix.size() + " non-zero cells. " + odMatrix.getTripsOutsideZones() + " trips started or ended outside all zones.");
+            try {
+                odMatrix.write(output.getFilename(Paths.get(outputDirectoryHierarchy.getIterationFilename(iteration, "od-matrix.csv"))));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
 
+        /**
+         * Appends one row with the modal share and the modal share per distance class of this iteration. The header is
+         * written if the file does not exist yet. Rows of earlier runs were already truncated at startup.
+         */
+        private void appendTimeSeries(int iteration, TripCube cube, Path filename) {
+
+            var distanceClasses = TripCube.DISTANCE_CLASSES;
+            var isNewFile = !Files.exists(filename);
+            var format = CSVFormat.DEFAULT.withDelimiter(';');
+
+            if (isNewFile) {
+                var header = new ArrayList<String>();
+                header.add("iteration");
+                header.add("trips");
+                header.addAll(MODES);
+                for (var mode : MODES) {
                     for (var distanceClass : distanceClasses) {
+                        header.add(mode + " " + distanceClass);
+                    }
+                }
+                format = format.withHeader(header.toArray(new String[0]));
+            }
 
-                        var totalNumberForDistance = numberOfTripsPerDistanceClass.getInt(distanceClass);
-                        var distanceAndModeValue = distances.getInt(distanceClass);
-                        var share = (double)distanceAndModeValue/totalNumberForDistance;
-                        log.info(mode + ", " + distanceClass + ": " + distanceAndModeValue + ", " + totalNumberForDistance + ", " + share);
+            try (var writer = Files.newBufferedWriter(filename, StandardOpenOption.CREATE, StandardOpenOption.APPEND); var printer = format.print(writer)) {
 
-                        printer.printRecord(distanceClass, mode, distanceAndModeValue, share);
+                var totalNumberOfTrips = cube.getTotalCount();
+                var record = new ArrayList<>();
+                record.add(iteration);
+                record.add(PersonWeights.formatCount(totalNumberOfTrips, cube.getWeights()));
+                for (var mode : MODES) {
+                    record.add(getShare(cube.getCount(mode), totalNumberOfTrips));
+                }
+                for (var mode : MODES) {
+                    for (var distanceClass = 0; distanceClass < distanceClasses.size(); distanceClass++) {
+                        record.add(getShare(cube.getCount(mode, distanceClass), cube.getCountForDistanceClass(distanceClass)));
                     }
                 }
+                printer.printRecord(record);
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new UncheckedIOException(e);
             }
-
         }
 
-        private String getDistanceKey(double distance) {
-            if (distance < 1000) return "<1";
-            if (distance < 3000) return "1 to 3";
-            if (distance < 5000) return "3 to 5";
-            if (distance < 10000) return "5 to 10";
-            return ">10";
+        /**
+         * State of one shard. It is only touched by the events handling thread of that shard.
+         */
+        private class ShardCounter {
+
+            private final TripCube cube = new TripCube(zones.homeZones, zones.weights);
+            private final ODMatrix odMatrix = zones.odZones == null ? null : new ODMatrix(zones.odZones, network, zones.weights);
+
+            // accepted persons with trips in this iteration
+            private final BitSet countedPersons = new BitSet();
+
+            private boolean isAccepted(TripRecord trip) {
+
+                var personIndex = trip.getPersonIndex();
+                if (!acceptedPersons.get(personIndex)) return false;
+
+                countedPersons.set(personIndex);
+                return true;
+            }
         }
     }
 }
@@ -0,0 +1,372 @@
+package org.matsim.velbert.analysis;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.matsim.velbert.scoring.ActivityTypes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aggregates trips along main mode, distance class, departure hour, trip purpose and home zone. Every cell holds the
+ * number of trips and the sum of their distances in dense primitive arrays. The tables of the trip analysis are roll-ups
+ * and slices of the cube, so all of them come from a single pass over the trips.
+ * <p>
+ * Modes and purposes are added as they show up. The purpose of a trip is the type of the activity it ends at, without
+ * the {@code _<duration>} suffix. Departure hours after the last hour bin are counted in the last bin. If no home zones
+ * are given, the home zone dimension has only the {@link #NO_HOME_ZONE} entry.
+ * <p>
+ * If {@link PersonWeights} are given, every trip is counted with the weight of its person, so that a stratified sample
+ * reproduces the shares of the population it was drawn from. Counts are therefore fractional.
+ */
+public class TripCube {
+
+    public enum Dimension {MODE, DISTANCE_CLASS, HOUR, PURPOSE, HOME_ZONE}
+
+    public static final List<String> DISTANCE_CLASSES = List.of("<1", "1 to 3", "3 to 5", "5 to 10", ">10");
+    public static final String NO_HOME_ZONE = "none";
+    public static final String UNKNOWN_PURPOSE = "unknown";
+    public static final int ANY = -1;
+
+    private static final int NUMBER_OF_DIMENSIONS = Dimension.values().length;
+
+    private final HomeZones homeZones;
+    private final PersonWeights weights;
+    private final int numberOfHours;
+    private final int numberOfHomeZones;
+
+    private final List<String> modes = new ArrayList<>();
+    private final Object2IntOpenHashMap<String> modeIndices = new Object2IntOpenHashMap<>();
+    private final List<String> purposes = new ArrayList<>();
+    private final Object2IntOpenHashMap<String> purposeIndices = new Object2IntOpenHashMap<>();
+    private final Object2IntOpenHashMap<String> purposeIndicesByActivityType = new Object2IntOpenHashMap<>();
+
+    // modes are the outermost dimension, so that adding a mode only appends cells. Adding purposes beyond the capacity
+    // requires to copy the cells into a new layout.
+    private int modeCapacity = 8;
+    private int purposeCapacity = 16;
+    private double[] counts;
+    private double[] distanceSums;
+
+    /**
+     * @param homeZones home zones of the persons, or {@code null} to not distinguish home zones
+     * @param weights   weights of the persons, or {@code null} to count every trip once
+     */
+    public TripCube(HomeZones homeZones, PersonWeights weights, int numberOfHours) {
+        this.homeZones = homeZones;
+        this.weights = weights;
+        this.numberOfHours = numberOfHours;
+        // home zones are distinguished by id, so all polygons of a postal code area fall into one entry
+        this.numberOfHomeZones = homeZones == null ? 1 : homeZones.getZones().getDistinctIds().size() + 1;
+        this.modeIndices.defaultReturnValue(-1);
+        this.purposeIndices.defaultReturnValue(-1);
+        this.purposeIndicesByActivityType.defaultReturnValue(-1);
+        this.counts = new double[modeCapacity * purposeCapacity * getBlockSize()];
+        this.distanceSums = new double[counts.length];
+    }
+
+    /**
+     * Creates a cube with 30 hour bins.
+     */
+    public TripCube(HomeZones homeZones, PersonWeights weights) {
+        this(homeZones, weights, 30);
+    }
+
+    /**
+     * Creates a cube with 30 hour bins which counts every trip once.
+     */
+    public TripCube(HomeZones homeZones) {
+        this(homeZones, null);
+    }
+
+    public void add(TripRecord trip) {
+
+        var distance = trip.getDistance();
+        var weight = weights == null ? 1 : weights.getWeight(trip.getPersonIndex());
+        var index = getIndex(getModeIndex(trip.getMode()), getPurposeIndex(trip.getEndActivityType()),
+                getHomeZoneIndex(trip.getPersonIndex()), getHour(trip.getDepartureTime()), getDistanceClass(distance));
+        counts[index] += weight;
+        distanceSums[index] += weight * distance;
+    }
+
+    /**
+     * Adds all cells of the other cube, which must have the same home zones, weights and hour bins, to this one.
+     */
+    public void add(TripCube other) {
+
+        var coordinates = new int[NUMBER_OF_DIMENSIONS];
+        other.forEachCell(Slice.all(), coordinates, otherIndex -> {
+            var index = getIndex(
+                    getModeIndex(other.modes.get(coordinates[Dimension.MODE.ordinal()])),
+                    internPurpose(other.purposes.get(coordinates[Dimension.PURPOSE.ordinal()])),
+                    coordinates[Dimension.HOME_ZONE.ordinal()],
+                    coordinates[Dimension.HOUR.ordinal()],
+                    coordinates[Dimension.DISTANCE_CLASS.ordinal()]);
+            counts[index] += other.counts[otherIndex];
+            distanceSums[index] += other.distanceSums[otherIndex];
+        });
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(distanceSums, 0);
+    }
+
+    public int size(Dimension dimension) {
+        switch (dimension) {
+            case MODE:
+                return modes.size();
+            case DISTANCE_CLASS:
+                return DISTANCE_CLASSES.size();
+            case HOUR:
+                return numberOfHours;
+            case PURPOSE:
+                return purposes.size();
+            case HOME_ZONE:
+                return numberOfHomeZones;
+            default:
+                throw new IllegalArgumentException("Unknown dimension " + dimension);
+        }
+    }
+
+    public String getLabel(Dimension dimension, int index) {
+        switch (dimension) {
+            case MODE:
+                return modes.get(index);
+            case DISTANCE_CLASS:
+                return DISTANCE_CLASSES.get(index);
+            case HOUR:
+                return Integer.toString(index);
+            case PURPOSE:
+                return purposes.get(index);
+            case HOME_ZONE:
+                return index == numberOfHomeZones - 1 ? NO_HOME_ZONE : homeZones.getZones().getDistinctIds().get(index);
+            default:
+                throw new IllegalArgumentException("Unknown dimension " + dimension);
+        }
+    }
+
+    /**
+     * @return the index of the label within the dimension or -1 if the cube has no such entry
+     */
+    public int getIndex(Dimension dimension, String label) {
+        for (var i = 0; i < size(dimension); i++) {
+            var other = getLabel(dimension, i);
+            if (other == null ? label == null : other.equals(label)) return i;
+        }
+        return -1;
+    }
+
+    public double getCount(Slice slice) {
+        var result = new double[1];
+        forEachCell(slice, new int[NUMBER_OF_DIMENSIONS], index -> result[0] += counts[index]);
+        return result[0];
+    }
+
+    public double getDistanceSum(Slice slice) {
+        var result = new double[1];
+        forEachCell(slice, new int[NUMBER_OF_DIMENSIONS], index -> result[0] += distanceSums[index]);
+        return result[0];
+    }
+
+    /**
+     * @return the number of trips within the slice for every entry of the dimension
+     */
+    public double[] rollUp(Dimension dimension, Slice slice) {
+        var result = new double[size(dimension)];
+        var coordinates = new int[NUMBER_OF_DIMENSIONS];
+        forEachCell(slice, coordinates, index -> result[coordinates[dimension.ordinal()]] += counts[index]);
+        return result;
+    }
+
+    /**
+     * @return the number of trips within the slice for every combination of entries of the two dimensions
+     */
+    public double[][] rollUp(Dimension rows, Dimension columns, Slice slice) {
+        var result = new double[size(rows)][size(columns)];
+        var coordinates = new int[NUMBER_OF_DIMENSIONS];
+        forEachCell(slice, coordinates, index -> result[coordinates[rows.ordinal()]][coordinates[columns.ordinal()]] += counts[index]);
+        return result;
+    }
+
+    public PersonWeights getWeights() {
+        return weights;
+    }
+
+    public double getTotalCount() {
+        return getCount(Slice.all());
+    }
+
+    public double getCount(String mode) {
+        var modeIndex = modeIndices.getInt(mode);
+        return modeIndex < 0 ? 0 : getCount(Slice.all().with(Dimension.MODE, modeIndex));
+    }
+
+    public double getCount(String mode, int distanceClass) {
+        var modeIndex = modeIndices.getInt(mode);
+        return modeIndex < 0 ? 0 : getCount(Slice.all().with(Dimension.MODE, modeIndex).with(Dimension.DISTANCE_CLASS, distanceClass));
+    }
+
+    public double getCountForDistanceClass(int distanceClass) {
+        return getCount(Slice.all().with(Dimension.DISTANCE_CLASS, distanceClass));
+    }
+
+    public static int getDistanceClass(double distance) {
+        if (distance < 1000) return 0;
+        if (distance < 3000) return 1;
+        if (distance < 5000) return 2;
+        if (distance < 10000) return 3;
+        return 4;
+    }
+
+    /**
+     * @return the activity type without the {@code _<duration>} suffix
+     */
+    public static String getPurpose(String activityType) {
+        if (activityType == null) return UNKNOWN_PURPOSE;
+        return ActivityTypes.getBaseType(activityType);
+    }
+
+    private void forEachCell(Slice slice, int[] coordinates, CellConsumer consumer) {
+
+        var sizes = new int[NUMBER_OF_DIMENSIONS];
+        for (var dimension : Dimension.values()) {
+            sizes[dimension.ordinal()] = size(dimension);
+        }
+
+        for (var mode = 0; mode < sizes[Dimension.MODE.ordinal()]; mode++) {
+            if (!slice.matches(Dimension.MODE, mode)) continue;
+            coordinates[Dimension.MODE.ordinal()] = mode;
+
+            for (var purpose = 0; purpose < sizes[Dimension.PURPOSE.ordinal()]; purpose++) {
+                if (!slice.matches(Dimension.PURPOSE, purpose)) continue;
+                coordinates[Dimension.PURPOSE.ordinal()] = purpose;
+
+                for (var zone = 0; zone < numberOfHomeZones; zone++) {
+                    if (!slice.matches(Dimension.HOME_ZONE, zone)) continue;
+                    coordinates[Dimension.HOME_ZONE.ordinal()] = zone;
+
+                    for (var hour = 0; hour < numberOfHours; hour++) {
+                        if (!slice.matches(Dimension.HOUR, hour)) continue;
+                        coordinates[Dimension.HOUR.ordinal()] = hour;
+
+                        for (var distanceClass = 0; distanceClass < DISTANCE_CLASSES.size(); distanceClass++) {
+                            if (!slice.matches(Dimension.DISTANCE_CLASS, distanceClass)) continue;
+                            coordinates[Dimension.DISTANCE_CLASS.ordinal()] = distanceClass;
+
+                            consumer.accept(getIndex(mode, purpose, zone, hour, distanceClass));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private int getBlockSize() {
+        return numberOfHomeZones * numberOfHours * DISTANCE_CLASSES.size();
+    }
+
+    private int getIndex(int mode, int purpose, int zone, int hour, int distanceClass) {
+        return (((mode * purposeCapacity + purpose) * numberOfHomeZones + zone) * numberOfHours + hour) * DISTANCE_CLASSES.size() + distanceClass;
+    }
+
+    private int getHour(double departureTime) {
+        if (Double.isNaN(departureTime)) return 0;
+        return Math.max(0, Math.min(numberOfHours - 1, (int) (departureTime / 3600)));
+    }
+
+    private int getHomeZoneIndex(int personIndex) {
+        if (homeZones == null) return 0;
+        var zone = homeZones.getZoneIndex(personIndex);
+        return zone < 0 ? numberOfHomeZones - 1 : homeZones.getZones().getIdIndex(zone);
+    }
+
+    private int getModeIndex(String mode) {
+
+        var index = modeIndices.getInt(mode);
+        if (index < 0) {
+            index = modes.size();
+            modes.add(mode);
+            modeIndices.put(mode, index);
+            if (index == modeCapacity) {
+                modeCapacity *= 2;
+                counts = Arrays.copyOf(counts, modeCapacity * purposeCapacity * getBlockSize());
+                distanceSums = Arrays.copyOf(distanceSums, counts.length);
+            }
+        }
+        return index;
+    }
+
+    private int getPurposeIndex(String activityType) {
+
+        // the suffix is only stripped once per activity type
+        var index = purposeIndicesByActivityType.getInt(activityType);
+        if (index < 0) {
+            index = internPurpose(getPurpose(activityType));
+            purposeIndicesByActivityType.put(activityType, index);
+        }
+        return index;
+    }
+
+    private int internPurpose(String purpose) {
+
+        var index = purposeIndices.getInt(purpose);
+        if (index < 0) {
+            index = purposes.size();
+            purposes.add(purpose);
+            purposeIndices.put(purpose, index);
+            if (index == purposeCapacity) growPurposes();
+        }
+        return index;
+    }
+
+    private void growPurposes() {
+
+        var oldCapacity = purposeCapacity;
+        purposeCapacity *= 2;
+        var blockSize = getBlockSize();
+        var newCounts = new double[modeCapacity * purposeCapacity * blockSize];
+        var newDistanceSums = new double[newCounts.length];
+
+        for (var mode = 0; mode < modeCapacity; mode++) {
+            var from = mode * oldCapacity * blockSize;
+            var to = mode * purposeCapacity * blockSize;
+            System.arraycopy(counts, from, newCounts, to, oldCapacity * blockSize);
+            System.arraycopy(distanceSums, from, newDistanceSums, to, oldCapacity * blockSize);
+        }
+        counts = newCounts;
+        distanceSums = newDistanceSums;
+    }
+
+    @FunctionalInterface
+    private interface CellConsumer {
+        void accept(int index);
+    }
+
+    /**
+     * Selects a part of the cube by fixing some dimensions to a single entry. Dimensions which are not fixed are summed
+     * up.
+     */
+    public static class Slice {
+
+        private final int[] fixed = new int[NUMBER_OF_DIMENSIONS];
+
+        private Slice() {
+            Arrays.fill(fixed, ANY);
+        }
+
+        public static Slice all() {
+            return new Slice();
+        }
+
+        public Slice with(Dimension dimension, int index) {
+            fixed[dimension.ordinal()] = index;
+            return this;
+        }
+
+        private boolean matches(Dimension dimension, int index) {
+            var value = fixed[dimension.ordinal()];
+            return value == ANY || value == index;
+        }
+    }
+}
@@ -11,60 +11,154 @@ import org.matsim.api.core.v01.events.handler.ActivityEndEventHandler;
 import org.matsim.api.core.v01.events.handler.ActivityStartEventHandler;
 import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
 import org.matsim.api.core.v01.events.handler.TransitDriverStartsEventHandler;
+import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.core.config.ReflectiveConfigGroup;
 import org.matsim.core.utils.geometry.CoordUtils;
 
 import java.util.*;
 
+/**
+ * Collects trips of persons from activity end/start and departure events. Trips are kept in a columnar {@link TripStore}.
+ * The state of trips which are currently under way is kept in primitive arrays indexed by the slot of the person, so
+ * that handling an event does not allocate. The slot is {@link Id#index()} of the person divided by the number of
+ * shards, so the shards of a {@link ShardedTripEventHandler} together keep about as much state as a single handler.
+ * <p>
+ * Registered {@link TripListener}s are notified the moment a trip is closed by an activity start. If only the listeners
+ * are of interest, storing of trips can be switched off, so that no per trip state is kept for the whole day.
+ */
 public class TripEventHandler implements ActivityEndEventHandler, ActivityStartEventHandler, PersonDepartureEventHandler, TransitDriverStartsEventHandler {
 
-    private final Set<Id<Person>> transitDrivers = new HashSet<>();
-    private final Map<Id<Person>, List<Trip>> tripsByPerson = new HashMap<>();
+    // indexed by the slot of the person, see getSlot
+    private final BitSet transitDrivers = new BitSet();
+    private final BitSet personsWithOpenTrip = new BitSet();
+    private final TripStore trips = new TripStore();
+    private final List<TripListener> listeners = new ArrayList<>();
+    private final ClosedTrip closedTrip = new ClosedTrip();
+
+    private double[] openStartX = new double[0];
+    private double[] openStartY = new double[0];
+    private double[] openDepartureTime = new double[0];
+    private int[] openMode = new int[0];
+    private int[] openStartLink = new int[0];
+    private int[] modeRanks = new int[0];
 
     private final Network network;
+    private final boolean storeTrips;
+    private final int shard;
+    private final int numberOfShards;
 
+    /**
+     * This builds trip objects for all stored trips. Prefer iterating {@link #getTrips()} with a cursor.
+     */
     public Map<Id<Person>, List<Trip>> getTripsByPerson() {
-        return tripsByPerson;
+        return trips.toTripsByPerson();
+    }
+
+    public TripStore getTrips() {
+        return trips;
     }
 
     public TripEventHandler(Network network) {
+        this(network, true);
+    }
+
+    public TripEventHandler(Network network, boolean storeTrips) {
+        this(network, storeTrips, 0, 1);
+    }
+
+    /**
+     * Creates a handler which only looks at persons whose index modulo {@code numberOfShards} equals {@code shard}.
+     * See {@link ShardedTripEventHandler}.
+     */
+    TripEventHandler(Network network, boolean storeTrips, int shard, int numberOfShards) {
         this.network = network;
+        this.storeTrips = storeTrips;
+        this.shard = shard;
+        this.numberOfShards = numberOfShards;
+    }
+
+    public void addTripListener(TripListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void reset(int iteration) {
+        transitDrivers.clear();
+        personsWithOpenTrip.clear();
+        trips.clear();
     }
 
     @Override
     public void handleEvent(ActivityEndEvent event) {
 
-        if (isInteraction(event.getActType()) || isTransitDriver(event.getPersonId())) return;
+        if (!isInShard(event.getPersonId()) || isInteraction(event.getActType()) || isTransitDriver(event.getPersonId())) return;
+
+        var slot = getSlot(event.getPersonId());
+        ensureSlotCapacity(slot);
 
-        var trip = new Trip();
-        trip.startCoord = getStartCoord(event);
-        tripsByPerson.computeIfAbsent(event.getPersonId(), id -> new ArrayList<>()).add(trip);
+        var coord = getCoord(event.getCoord(), event.getLinkId());
+        openStartX[slot] = coord.getX();
+        openStartY[slot] = coord.getY();
+        openDepartureTime[slot] = event.getTime();
+        openStartLink[slot] = event.getCoord() == null ? event.getLinkId().index() : -1;
+        openMode[slot] = -1;
+        personsWithOpenTrip.set(slot);
     }
 
     @Override
     public void handleEvent(ActivityStartEvent event) {
 
-        if (isInteraction(event.getActType()) || isTransitDriver(event.getPersonId())) return;
+        if (!isInShard(event.getPersonId()) || isInteraction(event.getActType()) || isTransitDriver(event.getPersonId())) return;
 
-        var currentTrip = getCurrentTrip(event.getPersonId());
-        currentTrip.endCoord = getEndCoord(event);
+        var personIndex = event.getPersonId().index();
+        var slot = getSlot(event.getPersonId());
+        if (!personsWithOpenTrip.get(slot)) return;
+
+        var coord = getCoord(event.getCoord(), event.getLinkId());
+        if (storeTrips) {
+            trips.add(personIndex, openMode[slot], openDepartureTime[slot], trips.internActivityType(event.getActType()),
+                    openStartX[slot], openStartY[slot], coord.getX(), coord.getY());
+        }
+        if (!listeners.isEmpty()) {
+            closedTrip.personIndex = personIndex;
+            closedTrip.slot = slot;
+            closedTrip.endX = coord.getX();
+            closedTrip.endY = coord.getY();
+            closedTrip.endActivityType = event.getActType();
+            closedTrip.endLinkIndex = event.getCoord() == null ? event.getLinkId().index() : -1;
+            for (var listener : listeners) {
+                listener.handleTrip(closedTrip);
+            }
+        }
+        personsWithOpenTrip.clear(slot);
     }
 
     @Override
     public void handleEvent(PersonDepartureEvent event) {
 
-        if (isTransitDriver(event.getPersonId())) return;
+        if (!isInShard(event.getPersonId()) || isTransitDriver(event.getPersonId())) return;
 
-        var currentTrip = getCurrentTrip(event.getPersonId());
-        currentTrip.mode = getMainMode(currentTrip.mode, event.getLegMode());
+        var slot = getSlot(event.getPersonId());
+        if (!personsWithOpenTrip.get(slot)) return;
 
+        openMode[slot] = getMainMode(openMode[slot], trips.internMode(event.getLegMode()));
     }
 
     @Override
     public void handleEvent(TransitDriverStartsEvent event) {
-        transitDrivers.add(event.getDriverId());
+        if (isInShard(event.getDriverId())) transitDrivers.set(getSlot(event.getDriverId()));
+    }
+
+    private boolean isInShard(Id<Person> id) {
+        return numberOfShards == 1 || id.index() % numberOfShards == shard;
+    }
+
+    /**
+     * @return the index of the person within the state of this shard
+     */
+    private int getSlot(Id<Person> id) {
+        return id.index() / numberOfShards;
     }
 
     private boolean isInteraction(String actType) {
@@ -72,28 +166,46 @@ public class TripEventHandler implements ActivityEndEventHandler, ActivityStartE
     }
 
     private boolean isTransitDriver(Id<Person> id) {
-        return transitDrivers.contains(id);
+        return transitDrivers.get(getSlot(id));
     }
 
-    private Coord getStartCoord(ActivityEndEvent event) {
-        return event.getCoord() == null ? network.getLinks().get(event.getLinkId()).getCoord() : event.getCoord();
+    private Coord getCoord(Coord eventCoord, Id<Link> linkId) {
+        return eventCoord == null ? network.getLinks().get(linkId).getCoord() : eventCoord;
     }
 
-    private Coord getEndCoord(ActivityStartEvent event) {
-        return event.getCoord() == null ? network.getLinks().get(event.getLinkId()).getCoord() : event.getCoord();
+    private void ensureSlotCapacity(int slot) {
+
+        if (slot < openMode.length) return;
+
+        var newCapacity = Math.max(slot + 1, Id.getNumberOfIds(Person.class) / numberOfShards + 1);
+        openStartX = Arrays.copyOf(openStartX, newCapacity);
+        openStartY = Arrays.copyOf(openStartY, newCapacity);
+        openDepartureTime = Arrays.copyOf(openDepartureTime, newCapacity);
+        openMode = Arrays.copyOf(openMode, newCapacity);
+        openStartLink = Arrays.copyOf(openStartLink, newCapacity);
     }
 
-    private Trip getCurrentTrip(Id<Person> id) {
-        var trips = tripsByPerson.get(id);
-        return trips.get(trips.size() - 1);
+    private int getMainMode(int modeIndex1, int modeIndex2) {
+
+        return getRank(modeIndex1) > getRank(modeIndex2) ? modeIndex1 : modeIndex2;
     }
 
-    private String getMainMode(String mode1, String mode2) {
+    private int getRank(int modeIndex) {
 
-        return getRank(mode1) > getRank(mode2) ? mode1 : mode2;
+        if (modeIndex < 0) return -1;
+
+        // ranks are cached per interned mode, so that we don't have to compare strings for every departure
+        if (modeIndex >= modeRanks.length) {
+            var previousLength = modeRanks.length;
+            modeRanks = Arrays.copyOf(modeRanks, trips.getNumberOfModes());
+            for (var i = previousLength; i < modeRanks.length; i++) {
+                modeRanks[i] = getRank(trips.getMode(i));
+            }
+        }
+        return modeRanks[modeIndex];
     }
 
-    private int getRank(String mode) {
+    private static int getRank(String mode) {
         if (TransportMode.walk.equals(mode)) return 0;
         if (TransportMode.bike.equals(mode)) return 1;
         if (TransportMode.ride.equals(mode)) return 2;
@@ -102,11 +214,90 @@ public class TripEventHandler implements ActivityEndEventHandler, ActivityStartE
         return -1; // can't tell
     }
 
+    @FunctionalInterface
+    public interface TripListener {
+
+        /**
+         * Called when a trip is closed by an activity start. The passed record is reused for the next trip.
+         */
+        void handleTrip(TripRecord trip);
+    }
+
+    /**
+     * Flyweight handed to {@link TripListener}s. Apart from the end coordinate, it reads the state of the trip under
+     * way directly from the per-person arrays at the slot of the person.
+     */
+    private class ClosedTrip implements TripRecord {
+
+        private int personIndex;
+        private int slot;
+        private double endX;
+        private double endY;
+        private int endLinkIndex;
+        private String endActivityType;
+
+        @Override
+        public int getPersonIndex() {
+            return personIndex;
+        }
+
+        @Override
+        public String getMode() {
+            return trips.getMode(openMode[slot]);
+        }
+
+        @Override
+        public double getDepartureTime() {
+            return openDepartureTime[slot];
+        }
+
+        @Override
+        public String getEndActivityType() {
+            return endActivityType;
+        }
+
+        @Override
+        public double getStartX() {
+            return openStartX[slot];
+        }
+
+        @Override
+        public double getStartY() {
+            return openStartY[slot];
+        }
+
+        @Override
+        public double getEndX() {
+            return endX;
+        }
+
+        @Override
+        public double getEndY() {
+            return endY;
+        }
+
+        @Override
+        public int getStartLinkIndex() {
+            return openStartLink[slot];
+        }
+
+        @Override
+        public int getEndLinkIndex() {
+            return endLinkIndex;
+        }
+    }
+
     public static class Trip {
 
-        private Coord startCoord;
-        private Coord endCoord;
-        private String mode;
+        private final Coord startCoord;
+        private final Coord endCoord;
+        private final String mode;
+
+        Trip(String mode, Coord startCoord, Coord endCoord) {
+            this.mode = mode;
+            this.startCoord = startCoord;
+            this.endCoord = endCoord;
+        }
 
         public double getDistance() {
             return CoordUtils.calcEuclideanDistance(startCoord, endCoord);
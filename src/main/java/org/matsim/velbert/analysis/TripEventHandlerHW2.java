@@ -1,71 +1,107 @@
 package org.matsim.velbert.analysis;
 
 import org.locationtech.jts.geom.Geometry;
-import org.matsim.api.core.v01.Coord;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.events.LinkLeaveEvent;
 import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
-import org.matsim.core.utils.collections.CollectionUtils;
 import org.matsim.core.utils.geometry.geotools.MGC;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 
 public class TripEventHandlerHW2 implements LinkLeaveEventHandler {
 
     //variable definition
-    private final Map<Id<Link>, Integer> linkLeaveCounts = new HashMap<>();
-    private final Map<Id<Link>, Double> linkFreeSpeeds = new HashMap<>();
     private final Network network;
-    private final Geometry shpVelbert;
+    private final BitSet countedLinks = new BitSet();
+    private final int[] linkLeaveCounts;
 
     //constructor
     public TripEventHandlerHW2(Network network, Geometry shpVelbert){
         this.network = network;
-        this.shpVelbert = shpVelbert;
+        this.linkLeaveCounts = new int[Id.getNumberOfIds(Link.class)];
+
+        //classify all links once: a link is counted if it is no pt link and its coords lie in Velbert
+        var preparedVelbert = new PreparedGeometryFactory().create(shpVelbert);
+        var countedLinkIndices = network.getLinks().values().parallelStream()
+                .filter(link -> !isPtLink(link) && isInGeometry(link, preparedVelbert))
+                .mapToInt(link -> link.getId().index())
+                .toArray();
+        for (var linkIndex : countedLinkIndices) {
+            countedLinks.set(linkIndex);
+        }
     }
 
-    //getter methods
-    public Map<Id<Link>, Integer> getLinkLeaveCounts() {return linkLeaveCounts;}
-    public Map<Id<Link>, Double> getLinkFreeSpeeds() {return linkFreeSpeeds;}
-
-    //event handling
-    @Override
-    public void handleEvent(LinkLeaveEvent event) {
-
-        //get the Id of the link that is being left
-        Id<Link> linkId = event.getLinkId();
+    //constructor for precomputed areas, e.g. links which lie in Velbert by a share of their length
+    public TripEventHandlerHW2(Network network, BitSet areaLinks){
+        this.network = network;
+        this.linkLeaveCounts = new int[Id.getNumberOfIds(Link.class)];
 
-        //get the coordinates of the link that is being left
-        Coord coord = network.getLinks().get(linkId).getCoord();
+        for (var linkIndex = areaLinks.nextSetBit(0); linkIndex >= 0; linkIndex = areaLinks.nextSetBit(linkIndex + 1)) {
+            var link = network.getLinks().get(Id.get(linkIndex, Link.class));
+            if (link != null && !isPtLink(link)) countedLinks.set(linkIndex);
+        }
+    }
 
-        //if the link being left is no pt link and its coords lie in Velbert
-        if (!isPtLink(linkId, network) & isInGeometry(coord, shpVelbert)){
+    //getter methods
+    public Map<Id<Link>, Integer> getLinkLeaveCounts() {
+        Map<Id<Link>, Integer> result = new HashMap<>();
+        for (var linkIndex = countedLinks.nextSetBit(0); linkIndex >= 0; linkIndex = countedLinks.nextSetBit(linkIndex + 1)) {
+            if (linkLeaveCounts[linkIndex] > 0) result.put(Id.get(linkIndex, Link.class), linkLeaveCounts[linkIndex]);
+        }
+        return result;
+    }
 
-            //add a value of one if the link already exists in the map or set a value of one if it does not yet exist
-            if(linkLeaveCounts.containsKey(linkId)){
-                linkLeaveCounts.put(linkId, linkLeaveCounts.get(linkId)+1);
-            } else {
-                linkLeaveCounts.put(linkId, 1);
+    public Map<Id<Link>, Double> getLinkFreeSpeeds() {
+        Map<Id<Link>, Double> result = new HashMap<>();
+        for (var linkIndex = countedLinks.nextSetBit(0); linkIndex >= 0; linkIndex = countedLinks.nextSetBit(linkIndex + 1)) {
+            if (linkLeaveCounts[linkIndex] > 0) {
+                var linkId = Id.get(linkIndex, Link.class);
+                result.put(linkId, network.getLinks().get(linkId).getFreespeed());
             }
+        }
+        return result;
+    }
 
-            //add the freespeed of the link (the network should be the output network) to the freespeed-hashmap
-            linkFreeSpeeds.put(linkId, network.getLinks().get(linkId).getFreespeed());
+    public int getLinkLeaveCount(Id<Link> linkId) {
+        var linkIndex = linkId.index();
+        return linkIndex < linkLeaveCounts.length ? linkLeaveCounts[linkIndex] : 0;
+    }
 
-        }
+    public BitSet getCountedLinks() {
+        return countedLinks;
+    }
 
+    //event handling
+    @Override
+    public void handleEvent(LinkLeaveEvent event) {
 
+        //only look at the precomputed classification of the link that is being left, so that nothing is allocated here
+        var linkIndex = event.getLinkId().index();
+        if (countedLinks.get(linkIndex)) {
+            linkLeaveCounts[linkIndex]++;
+        }
+    }
 
+    @Override
+    public void reset(int iteration) {
+        Arrays.fill(linkLeaveCounts, 0);
     }
 
     //functions
-    private boolean isInGeometry(Coord coord, Geometry shpVelbert){
-        return shpVelbert.covers(MGC.coord2Point(coord));
+    private static boolean isInGeometry(Link link, PreparedGeometry shpVelbert){
+        return shpVelbert.covers(MGC.coord2Point(link.getCoord()));
     }
 
-    private boolean isPtLink(Id<Link> linkId, Network network){
-        return network.getLinks().get(linkId).getAllowedModes().equals(CollectionUtils.stringArrayToSet(new String[]{"pt"}));
+    private static boolean isPtLink(Link link){
+        var allowedModes = link.getAllowedModes();
+        return allowedModes.size() == 1 && allowedModes.contains(TransportMode.pt);
     }
 }
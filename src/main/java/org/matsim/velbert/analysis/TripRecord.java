@@ -0,0 +1,59 @@
+package org.matsim.velbert.analysis;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+/**
+ * Read only view on a single trip. Implementations are flyweights which point to different trips over time, so a
+ * record must not be kept after the call it was handed to.
+ */
+public interface TripRecord {
+
+    int getPersonIndex();
+
+    default Id<Person> getPersonId() {
+        return Id.get(getPersonIndex(), Person.class);
+    }
+
+    String getMode();
+
+    /**
+     * @return end time of the activity the trip started at
+     */
+    double getDepartureTime();
+
+    /**
+     * @return type of the activity the trip ended at
+     */
+    String getEndActivityType();
+
+    double getStartX();
+
+    double getStartY();
+
+    double getEndX();
+
+    double getEndY();
+
+    /**
+     * @return index of the link whose coordinate is the start of the trip, or -1 if the start coordinate came from the
+     * activity itself
+     */
+    default int getStartLinkIndex() {
+        return -1;
+    }
+
+    /**
+     * @return index of the link whose coordinate is the end of the trip, or -1 if the end coordinate came from the
+     * activity itself
+     */
+    default int getEndLinkIndex() {
+        return -1;
+    }
+
+    default double getDistance() {
+        var dx = getEndX() - getStartX();
+        var dy = getEndY() - getStartY();
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,198 @@
+package org.matsim.velbert.analysis;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar storage for completed trips, i.e. trips which were ended by an activity start. Each trip is one row spread
+ * over a couple of growable primitive arrays, so that storing a trip does not create any objects. Modes and activity
+ * types are interned and stored as index, persons are stored by their {@link Id#index()}.
+ */
+public class TripStore {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private final List<String> modes = new ArrayList<>();
+    private final Object2IntOpenHashMap<String> modeIndices = new Object2IntOpenHashMap<>();
+    private final List<String> activityTypes = new ArrayList<>();
+    private final Object2IntOpenHashMap<String> activityTypeIndices = new Object2IntOpenHashMap<>();
+
+    private int size = 0;
+    private int[] persons = new int[INITIAL_CAPACITY];
+    private int[] modeIds = new int[INITIAL_CAPACITY];
+    private double[] departureTimes = new double[INITIAL_CAPACITY];
+    private int[] endActivityTypeIds = new int[INITIAL_CAPACITY];
+    private double[] startX = new double[INITIAL_CAPACITY];
+    private double[] startY = new double[INITIAL_CAPACITY];
+    private double[] endX = new double[INITIAL_CAPACITY];
+    private double[] endY = new double[INITIAL_CAPACITY];
+
+    public TripStore() {
+        modeIndices.defaultReturnValue(-1);
+        activityTypeIndices.defaultReturnValue(-1);
+    }
+
+    /**
+     * @return the index of the mode. A new index is assigned if the mode was not seen before.
+     */
+    public int internMode(String mode) {
+        var index = modeIndices.getInt(mode);
+        if (index < 0) {
+            index = modes.size();
+            modes.add(mode);
+            modeIndices.put(mode, index);
+        }
+        return index;
+    }
+
+    public String getMode(int modeIndex) {
+        return modeIndex < 0 ? null : modes.get(modeIndex);
+    }
+
+    public int internActivityType(String activityType) {
+        var index = activityTypeIndices.getInt(activityType);
+        if (index < 0) {
+            index = activityTypes.size();
+            activityTypes.add(activityType);
+            activityTypeIndices.put(activityType, index);
+        }
+        return index;
+    }
+
+    public String getActivityType(int activityTypeIndex) {
+        return activityTypeIndex < 0 ? null : activityTypes.get(activityTypeIndex);
+    }
+
+    public int getNumberOfModes() {
+        return modes.size();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(int personIndex, int modeIndex, double departureTime, int endActivityTypeIndex, double startX, double startY, double endX, double endY) {
+
+        ensureCapacity(size + 1);
+        this.persons[size] = personIndex;
+        this.modeIds[size] = modeIndex;
+        this.departureTimes[size] = departureTime;
+        this.endActivityTypeIds[size] = endActivityTypeIndex;
+        this.startX[size] = startX;
+        this.startY[size] = startY;
+        this.endX[size] = endX;
+        this.endY[size] = endY;
+        size++;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return a cursor positioned before the first trip. Advance it with {@link Cursor#next()}. The cursor is a
+     * flyweight and does not allocate while iterating.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Builds the trips as objects, grouped by person. This allocates one {@link TripEventHandler.Trip} per trip and
+     * is only meant for callers which still need the old map based view.
+     */
+    public Map<Id<Person>, List<TripEventHandler.Trip>> toTripsByPerson() {
+
+        Map<Id<Person>, List<TripEventHandler.Trip>> result = new HashMap<>();
+        for (var i = 0; i < size; i++) {
+            var trip = new TripEventHandler.Trip(
+                    getMode(modeIds[i]),
+                    new Coord(startX[i], startY[i]),
+                    new Coord(endX[i], endY[i])
+            );
+            result.computeIfAbsent(Id.get(persons[i], Person.class), id -> new ArrayList<>()).add(trip);
+        }
+        return result;
+    }
+
+    private void ensureCapacity(int capacity) {
+
+        if (capacity <= persons.length) return;
+
+        var newCapacity = Math.max(capacity, persons.length + (persons.length >> 1));
+        persons = Arrays.copyOf(persons, newCapacity);
+        modeIds = Arrays.copyOf(modeIds, newCapacity);
+        departureTimes = Arrays.copyOf(departureTimes, newCapacity);
+        endActivityTypeIds = Arrays.copyOf(endActivityTypeIds, newCapacity);
+        startX = Arrays.copyOf(startX, newCapacity);
+        startY = Arrays.copyOf(startY, newCapacity);
+        endX = Arrays.copyOf(endX, newCapacity);
+        endY = Arrays.copyOf(endY, newCapacity);
+    }
+
+    public class Cursor implements TripRecord {
+
+        private int position = -1;
+
+        public boolean next() {
+            position++;
+            return position < size;
+        }
+
+        public void reset() {
+            position = -1;
+        }
+
+        @Override
+        public int getPersonIndex() {
+            return persons[position];
+        }
+
+        public int getModeIndex() {
+            return modeIds[position];
+        }
+
+        @Override
+        public String getMode() {
+            return TripStore.this.getMode(modeIds[position]);
+        }
+
+        @Override
+        public double getDepartureTime() {
+            return departureTimes[position];
+        }
+
+        @Override
+        public String getEndActivityType() {
+            return getActivityType(endActivityTypeIds[position]);
+        }
+
+        @Override
+        public double getStartX() {
+            return startX[position];
+        }
+
+        @Override
+        public double getStartY() {
+            return startY[position];
+        }
+
+        @Override
+        public double getEndX() {
+            return endX[position];
+        }
+
+        @Override
+        public double getEndY() {
+            return endY[position];
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.matsim.velbert.checkpoint;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.population.io.PopulationWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * The state of a run in an iteration: all plans of the population with their scores, the car travel times, the random
+ * seed and the iteration. A checkpoint is a directory with
+ * <ul>
+ *     <li>{@value #PLANS}: the population, selected and unselected plans with their scores</li>
+ *     <li>{@value #TRAVEL_TIMES}: a {@link TravelTimeTable} of the car travel times. Only checkpoints of the
+ *     {@link Stage#iterationEnd} stage have them, see {@link Stage#beforeMobsim}.</li>
+ *     <li>{@value #PROPERTIES}: iteration, stage and random seed</li>
+ * </ul>
+ * Checkpoints are written into a temporary directory which is renamed once it is complete, so a checkpoint directory
+ * is either complete or doesn't exist.
+ * <p>
+ * A checkpoint of the {@link Stage#beforeMobsim} stage holds the plans after replanning. MATSim resets its random
+ * numbers to the seed plus the iteration at the start of every iteration, so a run started from it at the same
+ * iteration with the same seed continues exactly as the original run would have.
+ */
+public class Checkpoint {
+
+    public static final String PLANS = "plans.xml.gz";
+    public static final String TRAVEL_TIMES = "travelTimes.bin";
+    public static final String PROPERTIES = "checkpoint.properties";
+
+    private static final String ITERATION = "iteration";
+    private static final String STAGE = "stage";
+    private static final String RANDOM_SEED = "randomSeed";
+
+    /**
+     * When in the iteration the checkpoint was taken.
+     */
+    public enum Stage {
+        /**
+         * After replanning, before the mobsim. Such a checkpoint has no travel times: MATSim doesn't replan in the
+         * first iteration of a run, so the run resumed from it only routes with the travel times of its own mobsim.
+         */
+        beforeMobsim,
+        /**
+         * After scoring at the end of the iteration.
+         */
+        iterationEnd
+    }
+
+    private final Path directory;
+    private final int iteration;
+    private final Stage stage;
+    private final long randomSeed;
+
+    private Checkpoint(Path directory, int iteration, Stage stage, long randomSeed) {
+        this.directory = directory;
+        this.iteration = iteration;
+        this.stage = stage;
+        this.randomSeed = randomSeed;
+    }
+
+    public static Checkpoint read(Path directory) throws IOException {
+
+        var properties = new Properties();
+        try (var reader = Files.newBufferedReader(directory.resolve(PROPERTIES))) {
+            properties.load(reader);
+        }
+        if (!Files.exists(directory.resolve(PLANS)))
+            throw new IOException("Checkpoint " + directory + " is incomplete");
+
+        return new Checkpoint(directory, Integer.parseInt(properties.getProperty(ITERATION)),
+                Stage.valueOf(properties.getProperty(STAGE)), Long.parseLong(properties.getProperty(RANDOM_SEED)));
+    }
+
+    /**
+     * @return the checkpoint with the highest iteration in the sub directories of the directory, or {@code null} if
+     * there is none. Incomplete checkpoints are skipped.
+     */
+    public static Checkpoint findLatest(Path directory) throws IOException {
+
+        if (!Files.isDirectory(directory)) return null;
+
+        Checkpoint latest = null;
+        try (var candidates = Files.list(directory)) {
+            for (var candidate : (Iterable<Path>) candidates::iterator) {
+                if (candidate.getFileName().toString().endsWith(".tmp") || !Files.exists(candidate.resolve(PROPERTIES))) continue;
+
+                Checkpoint checkpoint;
+                try {
+                    checkpoint = read(candidate);
+                } catch (IOException | RuntimeException e) {
+                    continue;
+                }
+                if (latest == null || checkpoint.getIteration() > latest.getIteration()) latest = checkpoint;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Writes the checkpoint into a temporary directory next to the given directory and renames it once it is complete.
+     * An existing checkpoint in the directory is replaced.
+     *
+     * @param travelTimes may be {@code null} for checkpoints without travel times
+     */
+    public static Checkpoint write(Path directory, Population population, Network network, TravelTimeTable travelTimes,
+                                   int iteration, Stage stage, long randomSeed) throws IOException {
+
+        var tempDirectory = directory.resolveSibling(directory.getFileName() + ".tmp");
+        deleteDirectory(tempDirectory);
+        Files.createDirectories(tempDirectory);
+
+        new PopulationWriter(population, network).write(tempDirectory.resolve(PLANS).toString());
+        if (travelTimes != null) travelTimes.write(tempDirectory.resolve(TRAVEL_TIMES));
+
+        var properties = new Properties();
+        properties.setProperty(ITERATION, Integer.toString(iteration));
+        properties.setProperty(STAGE, stage.name());
+        properties.setProperty(RANDOM_SEED, Long.toString(randomSeed));
+        try (var writer = Files.newBufferedWriter(tempDirectory.resolve(PROPERTIES))) {
+            properties.store(writer, null);
+        }
+
+        deleteDirectory(directory);
+        Files.move(tempDirectory, directory, StandardCopyOption.ATOMIC_MOVE);
+        return new Checkpoint(directory, iteration, stage, randomSeed);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
+    public Path getPlansFile() {
+        return directory.resolve(PLANS);
+    }
+
+    public TravelTimeTable readTravelTimes() throws IOException {
+        var file = directory.resolve(TRAVEL_TIMES);
+        if (!Files.exists(file))
+            throw new IOException("Checkpoint " + directory + " of stage " + stage + " has no travel times. Use the checkpoint at the end of a run.");
+        return TravelTimeTable.read(file);
+    }
+
+    static void deleteDirectory(Path directory) throws IOException {
+
+        if (!Files.exists(directory)) return;
+
+        try (var files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
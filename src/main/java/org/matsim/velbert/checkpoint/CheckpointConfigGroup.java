@@ -0,0 +1,53 @@
+package org.matsim.velbert.checkpoint;
+
+import org.matsim.core.config.ReflectiveConfigGroup;
+
+import java.util.Map;
+
+public class CheckpointConfigGroup extends ReflectiveConfigGroup {
+
+    public static final String GROUP_NAME = "checkpoint";
+
+    private static final String INTERVAL = "interval";
+    private static final String RETAINED_CHECKPOINTS = "retainedCheckpoints";
+
+    private int interval = 0;
+    private int retainedCheckpoints = 2;
+
+    public CheckpointConfigGroup() {
+        super(GROUP_NAME);
+    }
+
+    @StringGetter(INTERVAL)
+    public int getInterval() {
+        return interval;
+    }
+
+    @StringSetter(INTERVAL)
+    public void setInterval(int interval) {
+        this.interval = interval;
+    }
+
+    @StringGetter(RETAINED_CHECKPOINTS)
+    public int getRetainedCheckpoints() {
+        return retainedCheckpoints;
+    }
+
+    @StringSetter(RETAINED_CHECKPOINTS)
+    public void setRetainedCheckpoints(int retainedCheckpoints) {
+        this.retainedCheckpoints = retainedCheckpoints;
+    }
+
+    public boolean isCheckpointIteration(int iteration, int firstIteration) {
+        return interval > 0 && iteration > firstIteration && iteration % interval == 0;
+    }
+
+    @Override
+    public Map<String, String> getComments() {
+        var comments = super.getComments();
+        comments.put(INTERVAL, "Write a checkpoint every n-th iteration, from which the run can be resumed with --resume. " +
+                "0 means: only write the final checkpoint for warm starts.");
+        comments.put(RETAINED_CHECKPOINTS, "Number of periodic checkpoints to keep. Older ones are deleted.");
+        return comments;
+    }
+}
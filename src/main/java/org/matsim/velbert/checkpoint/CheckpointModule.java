@@ -0,0 +1,17 @@
+package org.matsim.velbert.checkpoint;
+
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+
+/**
+ * Writes a {@link Checkpoint} at the end of the run and, if configured in the {@link CheckpointConfigGroup}, periodic
+ * checkpoints to resume from.
+ */
+public class CheckpointModule extends AbstractModule {
+
+    @Override
+    public void install() {
+        ConfigUtils.addOrGetModule(getConfig(), CheckpointConfigGroup.class);
+        addControlerListenerBinding().to(CheckpointWriter.class);
+    }
+}
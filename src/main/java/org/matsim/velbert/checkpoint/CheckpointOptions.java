@@ -0,0 +1,78 @@
+package org.matsim.velbert.checkpoint;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Checkpoint options of the run scripts. They are taken out of the arguments before the remaining arguments are
+ * passed on to the config:
+ * <ul>
+ *     <li>{@code --warm-start=<checkpoint directory>}: start from the plans and travel times of a {@link Checkpoint}</li>
+ *     <li>{@code --resume}: continue the run from its latest periodic checkpoint, see {@link Resume}</li>
+ * </ul>
+ */
+public class CheckpointOptions {
+
+    private static final String WARM_START = "--warm-start=";
+    private static final String RESUME = "--resume";
+
+    private final String[] configArgs;
+    private final Checkpoint warmStart;
+    private final boolean resume;
+
+    private CheckpointOptions(String[] configArgs, Checkpoint warmStart, boolean resume) {
+        this.configArgs = configArgs;
+        this.warmStart = warmStart;
+        this.resume = resume;
+    }
+
+    public static CheckpointOptions parse(String[] args) throws IOException {
+
+        var configArgs = new ArrayList<String>();
+        Checkpoint warmStart = null;
+        var resume = false;
+        for (var arg : args) {
+            if (arg.startsWith(WARM_START)) warmStart = Checkpoint.read(Paths.get(arg.substring(WARM_START.length())));
+            else if (arg.equals(RESUME)) resume = true;
+            else configArgs.add(arg);
+        }
+        if (warmStart != null && resume)
+            throw new IllegalArgumentException(WARM_START + " and " + RESUME + " can't be combined");
+
+        return new CheckpointOptions(configArgs.toArray(new String[0]), warmStart, resume);
+    }
+
+    /**
+     * @return the arguments for the config
+     */
+    public String[] getConfigArgs() {
+        return configArgs;
+    }
+
+    /**
+     * Call this before the scenario is loaded.
+     */
+    public void prepareConfig(Config config) throws IOException {
+        if (warmStart != null) WarmStart.prepareConfig(config, warmStart);
+        if (resume) {
+            var checkpoint = Resume.findCheckpoint(config);
+            if (checkpoint == null)
+                throw new IllegalStateException("No checkpoint to resume from in " + config.controler().getOutputDirectory());
+            Resume.prepareConfig(config, checkpoint);
+        }
+    }
+
+    /**
+     * Call this after the policy of the run changed the network.
+     *
+     * @param changedLinks indices of the links changed by the policy
+     */
+    public void prepareScenario(Scenario scenario, BitSet changedLinks) throws IOException {
+        if (warmStart != null) WarmStart.reroute(scenario, warmStart.readTravelTimes(), changedLinks);
+    }
+}
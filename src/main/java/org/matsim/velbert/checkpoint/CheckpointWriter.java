@@ -0,0 +1,206 @@
+package org.matsim.velbert.checkpoint;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.listener.BeforeMobsimListener;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.ShutdownListener;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.utils.objectattributes.attributable.AttributesUtils;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes {@link Checkpoint}s of the run:
+ * <ul>
+ *     <li>every {@code checkpoint.interval} iterations into {@value #PERIODIC_DIRECTORY}/it.n, after replanning and
+ *     before the mobsim, from which the run can be resumed</li>
+ *     <li>after the last iteration into {@value #DIRECTORY}, from which policy runs can start with {@link WarmStart}.
+ *     It is written at shutdown, since an iteration flagged as possibly the last one may still be followed by others,
+ *     see {@link org.matsim.core.controler.TerminationCriterion}.</li>
+ * </ul>
+ * Periodic checkpoints only copy the plans on the controler thread. Writing them happens in the background while the
+ * mobsim runs. They hold no travel times, since the resumed run doesn't need them, see
+ * {@link Checkpoint.Stage#beforeMobsim}. A failed checkpoint fails the run at the next checkpoint or at shutdown.
+ */
+class CheckpointWriter implements IterationEndsListener, BeforeMobsimListener, ShutdownListener {
+
+    private static final Logger log = LogManager.getLogger(CheckpointWriter.class);
+
+    static final String DIRECTORY = "checkpoint";
+    static final String PERIODIC_DIRECTORY = "checkpoints";
+
+    private final CheckpointConfigGroup checkpointConfig;
+    private final Config config;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "checkpoint-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Future<?>> pending = new ArrayList<>();
+
+    @Inject
+    private Population population;
+
+    @Inject
+    private Network network;
+
+    @Inject
+    private Map<String, TravelTime> travelTimes;
+
+    @Inject
+    private OutputDirectoryHierarchy outputDirectoryHierarchy;
+
+    private int lastEndedIteration = -1;
+
+    @Inject
+    CheckpointWriter(Config config) {
+        this.config = config;
+        this.checkpointConfig = ConfigUtils.addOrGetModule(config, CheckpointConfigGroup.class);
+    }
+
+    @Override
+    public void notifyIterationEnds(IterationEndsEvent event) {
+        lastEndedIteration = event.getIteration();
+    }
+
+    @Override
+    public void notifyBeforeMobsim(BeforeMobsimEvent event) {
+
+        if (!checkpointConfig.isCheckpointIteration(event.getIteration(), config.controler().getFirstIteration())) return;
+
+        var start = System.currentTimeMillis();
+        var iteration = event.getIteration();
+        var plans = copy(population);
+        log.info("Copied plans for the checkpoint of iteration " + iteration + " in " + (System.currentTimeMillis() - start) + "ms");
+
+        var directory = getPeriodicDirectory(config);
+        for (var iterator = pending.iterator(); iterator.hasNext(); ) {
+            var task = iterator.next();
+            if (!task.isDone()) continue;
+
+            iterator.remove();
+            get(task);
+        }
+        pending.add(executor.submit(() -> {
+            try {
+                Checkpoint.write(directory.resolve("it." + iteration), plans, network, null, iteration,
+                        Checkpoint.Stage.beforeMobsim, config.global().getRandomSeed());
+                log.info("Wrote checkpoint of iteration " + iteration);
+                deleteOldCheckpoints(directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+    }
+
+    @Override
+    public void notifyShutdown(ShutdownEvent event) {
+        try {
+            for (var task : pending) {
+                get(task);
+            }
+            pending.clear();
+            if (!event.isUnexpected() && lastEndedIteration >= 0) writeFinalCheckpoint(lastEndedIteration);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Rethrows the failure of a periodic checkpoint, so that the run doesn't go on without a checkpoint to resume from.
+     */
+    private static void get(Future<?> task) {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a checkpoint", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Writing a checkpoint failed", e.getCause());
+        }
+    }
+
+    /**
+     * @return the directory of the periodic checkpoints. It has no run id prefix, so that {@link Resume} finds it from
+     * the config alone.
+     */
+    static Path getPeriodicDirectory(Config config) {
+        return Paths.get(config.controler().getOutputDirectory(), PERIODIC_DIRECTORY);
+    }
+
+    private void writeFinalCheckpoint(int iteration) {
+
+        var directory = Paths.get(outputDirectoryHierarchy.getOutputFilename(DIRECTORY));
+        log.info("Writing checkpoint of iteration " + iteration + " to " + directory);
+        try {
+            var table = TravelTimeTable.of(network, TransportMode.car, travelTimes.get(TransportMode.car));
+            log.info("Travel time table has " + table.size() + " congested links");
+            Checkpoint.write(directory, population, network, table, iteration, Checkpoint.Stage.iterationEnd, config.global().getRandomSeed());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void deleteOldCheckpoints(Path directory) throws IOException {
+
+        var checkpoints = new ArrayList<Checkpoint>();
+        try (var candidates = Files.list(directory)) {
+            for (var candidate : (Iterable<Path>) candidates::iterator) {
+                if (Files.exists(candidate.resolve(Checkpoint.PROPERTIES)) && !candidate.getFileName().toString().endsWith(".tmp"))
+                    checkpoints.add(Checkpoint.read(candidate));
+            }
+        }
+        checkpoints.sort(Comparator.comparingInt(Checkpoint::getIteration).reversed());
+        for (var i = checkpointConfig.getRetainedCheckpoints(); i < checkpoints.size(); i++) {
+            Checkpoint.deleteDirectory(checkpoints.get(i).getDirectory());
+        }
+    }
+
+    /**
+     * @return a copy of all persons with their plans, so that the population can be written while the next iteration
+     * changes the plans
+     */
+    private static Population copy(Population population) {
+
+        var result = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+        AttributesUtils.copyAttributesFromTo(population, result);
+
+        var factory = result.getFactory();
+        for (var person : population.getPersons().values()) {
+            var personCopy = factory.createPerson(person.getId());
+            AttributesUtils.copyAttributesFromTo(person, personCopy);
+            for (var plan : person.getPlans()) {
+                var planCopy = factory.createPlan();
+                PopulationUtils.copyFromTo(plan, planCopy);
+                personCopy.addPlan(planCopy);
+                if (plan == person.getSelectedPlan()) personCopy.setSelectedPlan(planCopy);
+            }
+            result.addPerson(personCopy);
+        }
+        return result;
+    }
+}
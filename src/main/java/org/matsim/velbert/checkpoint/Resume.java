@@ -0,0 +1,68 @@
+package org.matsim.velbert.checkpoint;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.core.config.Config;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+
+import java.io.IOException;
+
+/**
+ * Continues a crashed run from its latest periodic {@link Checkpoint}. The checkpoint holds the plans after replanning
+ * and MATSim doesn't replan in the first iteration, so the resumed run starts with the mobsim of the checkpoint's
+ * iteration. The random numbers are reset to the seed plus the iteration at the start of every iteration, so with the
+ * same seed the resumed run continues exactly as the original run would have. The resumed run needs no travel times
+ * from the checkpoint: replanning in its second iteration uses the travel times of its own first mobsim, just like the
+ * original run did.
+ * <p>
+ * The modal share time series of the run is cut at the checkpoint's iteration and its earlier rows are taken over
+ * into the convergence check by the trip analysis.
+ */
+public final class Resume {
+
+    private static final Logger log = LogManager.getLogger(Resume.class);
+
+    private Resume() {
+    }
+
+    /**
+     * @return the latest checkpoint of the run in the output directory of the config, or {@code null} if there is none
+     */
+    public static Checkpoint findCheckpoint(Config config) throws IOException {
+        var checkpoint = Checkpoint.findLatest(CheckpointWriter.getPeriodicDirectory(config));
+        if (checkpoint != null && checkpoint.getStage() != Checkpoint.Stage.beforeMobsim)
+            throw new IllegalStateException("Checkpoint " + checkpoint.getDirectory() + " can't be resumed from, it was taken at stage " + checkpoint.getStage());
+        return checkpoint;
+    }
+
+    /**
+     * Sets plans, first iteration and random seed from the checkpoint. Call this before the scenario is loaded.
+     */
+    public static void prepareConfig(Config config, Checkpoint checkpoint) {
+
+        log.info("Resuming run from checkpoint of iteration " + checkpoint.getIteration() + " in " + checkpoint.getDirectory());
+
+        var firstIteration = config.controler().getFirstIteration();
+        var lastIteration = config.controler().getLastIteration();
+        var iteration = checkpoint.getIteration();
+
+        // innovation switch off and score averaging are relative to the first iteration. keep them at the iterations of
+        // the original run
+        var strategy = config.strategy();
+        strategy.setFractionOfIterationsToDisableInnovation(rescale(strategy.getFractionOfIterationsToDisableInnovation(), firstIteration, lastIteration, iteration));
+        var scoring = config.planCalcScore();
+        if (scoring.getFractionOfIterationsToStartScoreMSA() != null)
+            scoring.setFractionOfIterationsToStartScoreMSA(rescale(scoring.getFractionOfIterationsToStartScoreMSA(), firstIteration, lastIteration, iteration));
+
+        config.plans().setInputFile(checkpoint.getPlansFile().toAbsolutePath().toString());
+        config.controler().setFirstIteration(iteration);
+        config.global().setRandomSeed(checkpoint.getRandomSeed());
+        config.controler().setOverwriteFileSetting(OutputDirectoryHierarchy.OverwriteFileSetting.overwriteExistingFiles);
+    }
+
+    private static double rescale(double fraction, int firstIteration, int lastIteration, int iteration) {
+        if (lastIteration <= iteration) return fraction;
+        var switchIteration = firstIteration + fraction * (lastIteration - firstIteration);
+        return Math.max(0, (switchIteration - iteration) / (lastIteration - iteration));
+    }
+}
@@ -0,0 +1,143 @@
+package org.matsim.velbert.checkpoint;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Link travel times in time bins, copied from a {@link TravelTime}. Only congested links are stored, as one row of
+ * float travel times per link in a map by {@link Id#index()} of the link. All other links fall back to their free speed
+ * travel time.
+ * <p>
+ * A travel time is never less than the free speed travel time of the link at the time it is queried, so links whose
+ * free speed was lowered after the table was recorded get at least their new free speed travel time.
+ */
+public class TravelTimeTable implements TravelTime {
+
+    private static final int MAGIC = 0x56545454;
+    private static final int VERSION = 1;
+
+    // travel times within this margin of the free speed travel time are not stored
+    private static final double FREE_SPEED_TOLERANCE = 1e-3;
+
+    private final double binSize;
+    private final int numberOfBins;
+    private final Int2ObjectOpenHashMap<float[]> rows = new Int2ObjectOpenHashMap<>();
+
+    private TravelTimeTable(double binSize, int numberOfBins) {
+        this.binSize = binSize;
+        this.numberOfBins = numberOfBins;
+    }
+
+    /**
+     * Copies the travel times of all links of the network which allow the mode at the start of each bin. Other links
+     * are never congested by the mode, so they aren't queried.
+     */
+    public static TravelTimeTable of(Network network, String mode, TravelTime travelTime, double binSize, int numberOfBins) {
+
+        var result = new TravelTimeTable(binSize, numberOfBins);
+        for (var link : network.getLinks().values()) {
+            if (!link.getAllowedModes().contains(mode)) continue;
+
+            var freeSpeedTravelTime = getFreeSpeedTravelTime(link);
+            float[] row = null;
+            for (var bin = 0; bin < numberOfBins; bin++) {
+                var value = travelTime.getLinkTravelTime(link, bin * binSize, null, null);
+                if (Math.abs(value - freeSpeedTravelTime) <= FREE_SPEED_TOLERANCE) continue;
+
+                // the row is only created with the first congested bin
+                if (row == null) {
+                    row = new float[numberOfBins];
+                    Arrays.fill(row, (float) freeSpeedTravelTime);
+                    result.rows.put(link.getId().index(), row);
+                }
+                row[bin] = (float) value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Travel times in 15 minute bins over 30 hours.
+     */
+    public static TravelTimeTable of(Network network, String mode, TravelTime travelTime) {
+        return of(network, mode, travelTime, 900, 120);
+    }
+
+    @Override
+    public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+
+        var freeSpeedTravelTime = getFreeSpeedTravelTime(link);
+        var row = rows.get(link.getId().index());
+        if (row == null) return freeSpeedTravelTime;
+
+        var bin = Math.max(0, Math.min(numberOfBins - 1, (int) (time / binSize)));
+        return Math.max(row[bin], freeSpeedTravelTime);
+    }
+
+    /**
+     * @return number of stored, i.e. congested links
+     */
+    public int size() {
+        return rows.size();
+    }
+
+    public void write(Path filename) throws IOException {
+
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(filename)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeDouble(binSize);
+            out.writeInt(numberOfBins);
+
+            // link indices differ between runs, so rows are stored by link id
+            out.writeInt(rows.size());
+            for (var entry : rows.int2ObjectEntrySet()) {
+                out.writeUTF(Id.get(entry.getIntKey(), Link.class).toString());
+                for (var value : entry.getValue()) {
+                    out.writeFloat(value);
+                }
+            }
+        }
+    }
+
+    public static TravelTimeTable read(Path filename) throws IOException {
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(filename)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(filename + " is not a travel time table of version " + VERSION);
+
+            var binSize = in.readDouble();
+            var numberOfBins = in.readInt();
+            var numberOfRows = in.readInt();
+
+            var result = new TravelTimeTable(binSize, numberOfBins);
+            for (var i = 0; i < numberOfRows; i++) {
+                var linkIndex = Id.createLinkId(in.readUTF()).index();
+                var row = new float[numberOfBins];
+                for (var bin = 0; bin < numberOfBins; bin++) {
+                    row[bin] = in.readFloat();
+                }
+                result.rows.put(linkIndex, row);
+            }
+            return result;
+        }
+    }
+
+    private static double getFreeSpeedTravelTime(Link link) {
+        return link.getLength() / link.getFreespeed();
+    }
+}
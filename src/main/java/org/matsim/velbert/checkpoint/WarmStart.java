@@ -0,0 +1,128 @@
+package org.matsim.velbert.checkpoint;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.core.config.Config;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelTime;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Starts a policy run from the plans of a base run {@link Checkpoint} instead of the initial plans. The plans keep
+ * their scores. Network routes which use a link changed by the policy are routed again with the travel times of the
+ * checkpoint, so that the first iteration already drives on plausible routes. Everything else is left to replanning,
+ * so a warm started run needs far fewer iterations than a run from the initial plans.
+ */
+public final class WarmStart {
+
+    private static final Logger log = LogManager.getLogger(WarmStart.class);
+
+    private WarmStart() {
+    }
+
+    /**
+     * Reads the plans from the checkpoint. Call this before the scenario is loaded.
+     */
+    public static void prepareConfig(Config config, Checkpoint checkpoint) {
+        log.info("Warm start from checkpoint of iteration " + checkpoint.getIteration() + " in " + checkpoint.getDirectory());
+        config.plans().setInputFile(checkpoint.getPlansFile().toAbsolutePath().toString());
+    }
+
+    /**
+     * Routes all network routes again which use one of the changed links.
+     *
+     * @return number of rerouted legs
+     */
+    public static int reroute(Scenario scenario, TravelTime travelTimes, BitSet changedLinks) {
+
+        if (changedLinks.isEmpty()) return 0;
+
+        // like the network routing module, every mode is routed on the links which allow it only
+        var routers = new HashMap<String, ModeRouter>();
+
+        var rerouted = 0;
+        var unrouted = 0;
+        for (var person : scenario.getPopulation().getPersons().values()) {
+            for (var plan : person.getPlans()) {
+                for (var element : plan.getPlanElements()) {
+                    if (!(element instanceof Leg)) continue;
+
+                    var leg = (Leg) element;
+                    if (!(leg.getRoute() instanceof NetworkRoute) || !usesChangedLink((NetworkRoute) leg.getRoute(), changedLinks)) continue;
+
+                    // legs without a departure time or without a route on the network of their mode are left to the
+                    // routing before the first iteration
+                    var route = leg.getDepartureTime().isUndefined() ? null : routers
+                            .computeIfAbsent(leg.getMode(), mode -> new ModeRouter(scenario.getNetwork(), mode, travelTimes))
+                            .route((NetworkRoute) leg.getRoute(), leg.getDepartureTime().seconds());
+                    leg.setRoute(route);
+                    if (route == null) unrouted++;
+                    else rerouted++;
+                }
+            }
+        }
+        log.info("Rerouted " + rerouted + " legs using changed links. Removed the routes of " + unrouted + " legs without departure time or without a path.");
+        return rerouted;
+    }
+
+    /**
+     * Routes legs of one mode on the sub network of the links which allow the mode.
+     */
+    private static class ModeRouter {
+
+        private final Network network;
+        private final LeastCostPathCalculator router;
+
+        private ModeRouter(Network network, String mode, TravelTime travelTimes) {
+            this.network = NetworkUtils.createNetwork();
+            new TransportModeNetworkFilter(network).filter(this.network, Set.of(mode));
+            this.router = new SpeedyALTFactory().createPathCalculator(this.network, new OnlyTimeDependentTravelDisutility(travelTimes), travelTimes);
+        }
+
+        /**
+         * @return the new route, or {@code null} if start or end link don't allow the mode or the end can't be reached
+         */
+        private NetworkRoute route(NetworkRoute oldRoute, double departureTime) {
+
+            var startLink = network.getLinks().get(oldRoute.getStartLinkId());
+            var endLink = network.getLinks().get(oldRoute.getEndLinkId());
+            if (startLink == null || endLink == null) return null;
+            if (startLink == endLink) return oldRoute;
+
+            var path = router.calcLeastCostPath(startLink.getToNode(), endLink.getFromNode(), departureTime, null, null);
+            if (path == null) return null;
+
+            var linkIds = path.links.stream().map(Link::getId).collect(Collectors.<Id<Link>>toList());
+            var route = RouteUtils.createLinkNetworkRouteImpl(startLink.getId(), linkIds, endLink.getId());
+            route.setTravelTime(path.travelTime);
+            route.setTravelCost(path.travelCost);
+            route.setDistance(RouteUtils.calcDistance(route, 1.0, 1.0, network));
+            route.setVehicleId(oldRoute.getVehicleId());
+            return route;
+        }
+    }
+
+    private static boolean usesChangedLink(NetworkRoute route, BitSet changedLinks) {
+
+        if (changedLinks.get(route.getStartLinkId().index()) || changedLinks.get(route.getEndLinkId().index())) return true;
+        for (var linkId : route.getLinkIds()) {
+            if (changedLinks.get(linkId.index())) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,60 @@
+package org.matsim.velbert.policy;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+
+import java.util.BitSet;
+
+/**
+ * Changes link attributes of a shared network and remembers the original values of the changed links only, so that a
+ * policy variant can be undone before the next variant runs on the same network.
+ */
+public class NetworkOverlay {
+
+    private final Network network;
+    private final Int2DoubleOpenHashMap originalFreespeeds = new Int2DoubleOpenHashMap();
+
+    public NetworkOverlay(Network network) {
+        this.network = network;
+    }
+
+    public Network getNetwork() {
+        return network;
+    }
+
+    public void setFreespeed(Link link, double freespeed) {
+        var linkIndex = link.getId().index();
+        if (!originalFreespeeds.containsKey(linkIndex)) originalFreespeeds.put(linkIndex, link.getFreespeed());
+        link.setFreespeed(freespeed);
+    }
+
+    /**
+     * @return indices of the links changed by this overlay
+     */
+    public BitSet getChangedLinks() {
+        var result = new BitSet();
+        for (var linkIndex : originalFreespeeds.keySet().toIntArray()) {
+            result.set(linkIndex);
+        }
+        return result;
+    }
+
+    /**
+     * @return number of links changed by this overlay
+     */
+    public int size() {
+        return originalFreespeeds.size();
+    }
+
+    /**
+     * Sets all changed links back to their original values.
+     */
+    public void restore() {
+        for (var entry : originalFreespeeds.int2DoubleEntrySet()) {
+            network.getLinks().get(Id.get(entry.getIntKey(), Link.class)).setFreespeed(entry.getDoubleValue());
+        }
+        originalFreespeeds.clear();
+    }
+}
@@ -0,0 +1,128 @@
+package org.matsim.velbert.policy;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.velbert.zones.LinkZoneOverlaps;
+import org.matsim.velbert.zones.LinkZones;
+import org.matsim.velbert.zones.ZoneLayer;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Sets the free speed of all links in some zones whose current free speed lies within a band, e.g.
+ * <pre>
+ * SpeedPolicy.inZones(postalCodeZones, PostalCodeZones.VELBERT)
+ *         .withFreespeedBetween(30 / 3.6, 100 / 3.6)
+ *         .setFreespeed(30 / 3.6)
+ *         .apply(network);
+ * </pre>
+ * Both bounds of the band are exclusive. Links which only allow pt are never changed, since the pt schedule doesn't
+ * follow their free speed. By default, a link is in the zones if its coordinate is. The zones of the links come from
+ * {@link LinkZones}, so only the first policy on a network and zone layer pays for the geometry tests. With
+ * {@link #withMinOverlap(LinkZoneOverlaps, double)} a link is in the zones if enough of its length is.
+ */
+public class SpeedPolicy {
+
+    private static final Logger log = LogManager.getLogger(SpeedPolicy.class);
+    private static final Set<String> PT_ONLY = Set.of(TransportMode.pt);
+
+    private final ZoneLayer zones;
+    private final Collection<String> zoneIds;
+
+    private double minFreespeed = Double.NEGATIVE_INFINITY;
+    private double maxFreespeed = Double.POSITIVE_INFINITY;
+    private double freespeed = Double.NaN;
+    private LinkZoneOverlaps overlaps;
+    private double minOverlap;
+
+    private SpeedPolicy(ZoneLayer zones, Collection<String> zoneIds) {
+        this.zones = zones;
+        this.zoneIds = zoneIds;
+    }
+
+    /**
+     * @return a policy for the links in the given zones of the layer
+     */
+    public static SpeedPolicy inZones(ZoneLayer zones, Collection<String> zoneIds) {
+        return new SpeedPolicy(zones, zoneIds);
+    }
+
+    /**
+     * @return a policy for the links in any zone of the layer
+     */
+    public static SpeedPolicy inZones(ZoneLayer zones) {
+        return new SpeedPolicy(zones, zones.getIds());
+    }
+
+    /**
+     * Only changes links whose free speed is greater than min and less than max.
+     */
+    public SpeedPolicy withFreespeedBetween(double min, double max) {
+        this.minFreespeed = min;
+        this.maxFreespeed = max;
+        return this;
+    }
+
+    /**
+     * Only changes links of which at least the given share of their length lies in the zones.
+     *
+     * @param overlaps overlaps of the links with the zone layer of this policy
+     */
+    public SpeedPolicy withMinOverlap(LinkZoneOverlaps overlaps, double minFraction) {
+        if (overlaps.getZones() != zones)
+            throw new IllegalArgumentException("The overlaps were computed for a different zone layer");
+        this.overlaps = overlaps;
+        this.minOverlap = minFraction;
+        return this;
+    }
+
+    public SpeedPolicy setFreespeed(double freespeed) {
+        this.freespeed = freespeed;
+        return this;
+    }
+
+    public double getFreespeed() {
+        return freespeed;
+    }
+
+    /**
+     * @return whether the policy changes the link, regardless of its zone
+     */
+    public boolean isInBand(Link link) {
+        var linkFreespeed = link.getFreespeed();
+        return linkFreespeed > minFreespeed && linkFreespeed < maxFreespeed && !link.getAllowedModes().equals(PT_ONLY);
+    }
+
+    /**
+     * @return number of changed links
+     */
+    public int apply(Network network) {
+        return apply(new NetworkOverlay(network));
+    }
+
+    /**
+     * Changes the links through the overlay, so that the policy can be undone with {@link NetworkOverlay#restore()}.
+     *
+     * @return number of changed links
+     */
+    public int apply(NetworkOverlay overlay) {
+
+        if (Double.isNaN(freespeed)) throw new IllegalStateException("No free speed set for the policy");
+
+        var network = overlay.getNetwork();
+        var linksInZones = overlaps == null ? LinkZones.classify(network, zones).getLinks(zoneIds) : overlaps.getLinks(zoneIds, minOverlap);
+        var changed = 0;
+        for (var link : network.getLinks().values()) {
+            if (isInBand(link) && linksInZones.get(link.getId().index())) {
+                overlay.setFreespeed(link, freespeed);
+                changed++;
+            }
+        }
+        log.info("Set free speed of " + changed + " links to " + freespeed + "m/s");
+        return changed;
+    }
+}
@@ -23,9 +23,11 @@ import org.matsim.core.network.io.NetworkWriter;
 import org.matsim.core.utils.geometry.CoordinateTransformation;
 import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.core.utils.geometry.transformations.TransformationFactory;
-import org.matsim.core.utils.gis.ShapeFileReader;
+import org.matsim.velbert.zones.ShapeFeatures;
+import org.opengis.filter.Filter;
 import picocli.CommandLine;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
@@ -59,7 +61,7 @@ public class CreateNetwork implements MATSimAppCommand {
     }
 
     @Override
-    public Integer call() {
+    public Integer call() throws IOException {
 
         var svn = Paths.get(sharedSvn);
 
@@ -119,10 +121,9 @@ public class CreateNetwork implements MATSimAppCommand {
         return 0;
     }
 
-    private Geometry getDilutionArea(Path svn) {
+    private Geometry getDilutionArea(Path svn) throws IOException {
 
-        return ShapeFileReader.getAllFeatures(svn.resolve(scenarioRegionShapeFile).toString()).stream()
-                .map(simpleFeature -> (Geometry)simpleFeature.getDefaultGeometry())
+        return ShapeFeatures.readGeometries(svn.resolve(scenarioRegionShapeFile).toString(), Filter.INCLUDE, null).stream()
                 .findFirst()
                 .orElseThrow();
     }
@@ -3,7 +3,6 @@ package org.matsim.velbert.prepare;
 import org.apache.commons.configuration.ConfigurationUtils;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
-import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.matsim.application.MATSimAppCommand;
@@ -13,11 +12,13 @@ import org.matsim.core.population.io.PopulationWriter;
 import org.matsim.core.router.TripStructureUtils;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.core.utils.geometry.geotools.MGC;
-import org.matsim.core.utils.gis.ShapeFileReader;
+import org.matsim.velbert.zones.ShapeFeatures;
 import picocli.CommandLine;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.stream.Collectors;
 
 /**
@@ -43,7 +44,7 @@ public class ShapePopulationFilter implements MATSimAppCommand {
         System.exit(new CommandLine(new ShapePopulationFilter()).execute(args));
     }
     @Override
-    public Integer call() {
+    public Integer call() throws IOException {
 
         var svnPath = Paths.get(sharedSvn);
         var populationPath = svnPath.resolve(populationFile);
@@ -70,12 +71,11 @@ public class ShapePopulationFilter implements MATSimAppCommand {
         return 0;
     }
 
-    private PreparedGeometry getNordrheinWestfalen(Path shapeFile) {
+    private PreparedGeometry getNordrheinWestfalen(Path shapeFile) throws IOException {
 
-        // this assumes that there is only one feature which belongs to Nordrhein-Westfalen
-        return ShapeFileReader.getAllFeatures(shapeFile.toString()).stream()
-                .filter(feature -> feature.getAttribute("AGS").equals("05"))
-                .map(feature -> (Geometry)feature.getDefaultGeometry())
+        // this assumes that there is only one feature which belongs to Nordrhein-Westfalen. The filter is evaluated
+        // by the shape file reader, so the other federal states are never collected
+        return ShapeFeatures.readGeometries(shapeFile.toString(), ShapeFeatures.attributeIn("AGS", List.of("05")), null).stream()
                 .map(geometry -> new PreparedGeometryFactory().create(geometry))
                 .findAny()
                 .orElseThrow();
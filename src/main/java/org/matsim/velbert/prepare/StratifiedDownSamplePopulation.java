@@ -0,0 +1,248 @@
+package org.matsim.velbert.prepare;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.application.MATSimAppCommand;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.io.PopulationWriter;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.velbert.analysis.HomeZones;
+import org.matsim.velbert.analysis.PersonWeights;
+import org.matsim.velbert.scoring.ActivityTypes;
+import org.matsim.velbert.zones.PostalCodeZones;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Draws smaller samples from a population like {@code downsample-population}, but stratified by home zone, number of
+ * trips and activity chain, e.g. {@code home-work-shop_daily-home}. Every stratum keeps its share of the population up
+ * to rounding. Strata which would hold fewer than {@value #MIN_AGENTS_PER_STRATUM} agents in the sample are merged into
+ * a coarser stratum, first without the activity chain, then without the number of trips and last into one stratum for
+ * everybody.
+ * <p>
+ * Every sampled person gets a {@value PersonWeights#ATTRIBUTE} attribute: the share of its stratum in the input divided
+ * by the share in the sample. The weights average to 1. The trip analysis counts trips with these weights, which
+ * removes the remaining rounding error of the strata from the modal shares.
+ * <p>
+ * Samples are drawn from the largest to the smallest, each from the previous one, so every agent of a smaller sample is
+ * also part of the larger ones. The output files are named like the input with the sample size replaced, e.g.
+ * {@code -25pct.plans.xml.gz} becomes {@code -1pct.plans.xml.gz}.
+ */
+@CommandLine.Command(
+        name = "stratified-downsample-population",
+        description = "Downsample a population stratified by home zone, number of trips and activity chain",
+        showDefaultValues = true
+)
+public class StratifiedDownSamplePopulation implements MATSimAppCommand {
+
+    private static final Logger log = LogManager.getLogger(StratifiedDownSamplePopulation.class);
+
+    private static final int MIN_AGENTS_PER_STRATUM = 2;
+    private static final int MAX_TRIPS = 6;
+    private static final int NUMBER_OF_LEVELS = 4;
+
+    @CommandLine.Parameters(paramLabel = "INPUT", arity = "1", description = "path to the population")
+    private Path input;
+
+    @CommandLine.Option(names = "--sample-size", description = "sample size of the given input population", required = true)
+    private double sampleSize;
+
+    @CommandLine.Option(names = "--samples", description = "sample sizes to create", arity = "1..*", required = true)
+    private List<Double> samples;
+
+    @CommandLine.Option(names = "--seed", description = "seed of the random selection within the strata", defaultValue = "4711")
+    private long seed;
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new StratifiedDownSamplePopulation()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws IOException {
+
+        log.info("Reading population from " + input);
+        var population = PopulationUtils.readPopulation(input.toString());
+        var homeZones = HomeZones.compute(population, PostalCodeZones.readAll());
+
+        // sorted, so that the same seed always draws the same agents
+        var persons = new ArrayList<>(population.getPersons().values());
+        persons.sort(Comparator.comparing(Person::getId));
+        var keys = persons.parallelStream()
+                .map(person -> getStratumKeys(person, homeZones))
+                .collect(Collectors.toList());
+
+        var random = new Random(seed);
+        List<Integer> sampled = new ArrayList<>();
+        for (var i = 0; i < persons.size(); i++) {
+            sampled.add(i);
+        }
+
+        var sortedSamples = new ArrayList<>(samples);
+        sortedSamples.sort(Comparator.reverseOrder());
+        for (var sample : sortedSamples) {
+
+            var fraction = sample / sampleSize;
+            if (fraction >= 1)
+                throw new IllegalArgumentException("Sample " + sample + " must be smaller than the sample size " + sampleSize + " of the input");
+
+            var strata = assignStrata(keys, fraction);
+            sampled = select(sampled, strata, fraction, random);
+            var weights = computeWeights(sampled, strata);
+
+            var result = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+            var minWeight = Double.POSITIVE_INFINITY;
+            var maxWeight = 0.;
+            for (var i = 0; i < sampled.size(); i++) {
+                var person = persons.get(sampled.get(i));
+                person.getAttributes().putAttribute(PersonWeights.ATTRIBUTE, weights[i]);
+                result.addPerson(person);
+                minWeight = Math.min(minWeight, weights[i]);
+                maxWeight = Math.max(maxWeight, weights[i]);
+            }
+
+            var output = getOutputPath(sample);
+            log.info("Writing " + sampled.size() + " of " + persons.size() + " persons with weights between " + minWeight + " and " + maxWeight + " to " + output);
+            new PopulationWriter(result).write(output.toString());
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return the keys of the strata of the person, from the finest to the coarsest
+     */
+    private static String[] getStratumKeys(Person person, HomeZones homeZones) {
+
+        var plan = person.getSelectedPlan();
+        var zoneIndex = homeZones.getZoneIndex(person.getId());
+        var zone = zoneIndex < 0 ? "none" : homeZones.getZones().getId(zoneIndex);
+
+        var numberOfTrips = TripStructureUtils.getTrips(plan).size();
+        var trips = numberOfTrips >= MAX_TRIPS ? MAX_TRIPS + "+" : Integer.toString(numberOfTrips);
+
+        var chain = TripStructureUtils.getActivities(plan, TripStructureUtils.StageActivityHandling.ExcludeStageActivities).stream()
+                .map(activity -> ActivityTypes.getBaseType(activity.getType()))
+                .collect(Collectors.joining("-"));
+
+        return new String[]{zone + "|" + trips + "|" + chain, zone + "|" + trips, zone, "all"};
+    }
+
+    /**
+     * Assigns every person to the finest stratum which holds enough agents in the sample. Strata of a coarser level
+     * only contain the persons which are not in any finer stratum.
+     */
+    static String[] assignStrata(List<String[]> keys, double fraction) {
+
+        var strata = new String[keys.size()];
+        for (var level = 0; level < NUMBER_OF_LEVELS; level++) {
+
+            Map<String, Integer> sizes = new HashMap<>();
+            for (var i = 0; i < keys.size(); i++) {
+                if (strata[i] == null) sizes.merge(keys.get(i)[level], 1, Integer::sum);
+            }
+            for (var i = 0; i < keys.size(); i++) {
+                if (strata[i] != null) continue;
+
+                var key = keys.get(i)[level];
+                if (level == NUMBER_OF_LEVELS - 1 || sizes.get(key) * fraction >= MIN_AGENTS_PER_STRATUM)
+                    strata[i] = level + ":" + key;
+            }
+        }
+        return strata;
+    }
+
+    /**
+     * Selects {@code fraction} of the input persons of each stratum from the candidates. The number of persons per
+     * stratum is rounded such that the rounding errors don't add up over the strata. Only the rounding error is carried
+     * to the next stratum, not a shortfall of candidates, so a small stratum never inflates the next one.
+     */
+    static List<Integer> select(List<Integer> candidates, String[] strata, double fraction, Random random) {
+
+        Map<String, Integer> inputSizes = new TreeMap<>();
+        for (var stratum : strata) {
+            inputSizes.merge(stratum, 1, Integer::sum);
+        }
+        Map<String, List<Integer>> candidatesByStratum = new HashMap<>();
+        for (var candidate : candidates) {
+            candidatesByStratum.computeIfAbsent(strata[candidate], stratum -> new ArrayList<>()).add(candidate);
+        }
+
+        var result = new ArrayList<Integer>();
+        var roundingError = 0.;
+        for (var stratum : inputSizes.entrySet()) {
+
+            var expected = stratum.getValue() * fraction + roundingError;
+            var rounded = Math.max(0, Math.round(expected));
+            roundingError = expected - rounded;
+
+            var stratumCandidates = candidatesByStratum.getOrDefault(stratum.getKey(), new ArrayList<>());
+            var size = (int) Math.min(stratumCandidates.size(), rounded);
+
+            Collections.shuffle(stratumCandidates, random);
+            result.addAll(stratumCandidates.subList(0, size));
+        }
+
+        result.sort(Comparator.naturalOrder());
+        return result;
+    }
+
+    /**
+     * @return the weight of each sampled person, i.e. the share of its stratum in the input divided by its share in the
+     * sample, normalized to an average of 1
+     */
+    static double[] computeWeights(List<Integer> sampled, String[] strata) {
+
+        Map<String, Integer> inputSizes = new HashMap<>();
+        for (var stratum : strata) {
+            inputSizes.merge(stratum, 1, Integer::sum);
+        }
+        Map<String, Integer> sampleSizes = new HashMap<>();
+        for (var index : sampled) {
+            sampleSizes.merge(strata[index], 1, Integer::sum);
+        }
+
+        var weights = new double[sampled.size()];
+        var sum = 0.;
+        for (var i = 0; i < weights.length; i++) {
+            var stratum = strata[sampled.get(i)];
+            weights[i] = (double) inputSizes.get(stratum) / strata.length * sampled.size() / sampleSizes.get(stratum);
+            sum += weights[i];
+        }
+
+        // strata without any sampled person are lost, which the normalization spreads over all others
+        for (var i = 0; i < weights.length; i++) {
+            weights[i] *= weights.length / sum;
+        }
+        return weights;
+    }
+
+    private Path getOutputPath(double sample) {
+
+        var name = input.getFileName().toString();
+        var inputPct = toPct(sampleSize);
+        if (!name.contains(inputPct))
+            throw new IllegalArgumentException("Input file name " + name + " doesn't contain the sample size " + inputPct);
+
+        return input.resolveSibling(name.replace(inputPct, toPct(sample)));
+    }
+
+    private static String toPct(double sample) {
+        var pct = sample * 100;
+        if (Math.abs(pct - Math.round(pct)) > 1e-9)
+            throw new IllegalArgumentException("Sample size " + sample + " is not a whole percentage");
+        return Math.round(pct) + "pct";
+    }
+}
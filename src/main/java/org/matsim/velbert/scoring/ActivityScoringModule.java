@@ -0,0 +1,17 @@
+package org.matsim.velbert.scoring;
+
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.scoring.functions.ScoringParametersForPerson;
+
+import javax.inject.Singleton;
+
+/**
+ * Scores {@code <type>_<seconds>} activities with the parameters of their base type, see {@link ActivityTypes}.
+ */
+public class ActivityScoringModule extends AbstractModule {
+
+    @Override
+    public void install() {
+        bind(ScoringParametersForPerson.class).to(DurationScoringParametersForPerson.class).in(Singleton.class);
+    }
+}
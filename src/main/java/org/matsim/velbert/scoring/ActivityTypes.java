@@ -0,0 +1,93 @@
+package org.matsim.velbert.scoring;
+
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Activity types of the scenario follow the convention {@code <type>_<seconds>}, e.g. {@code work_28800.0}, where the
+ * suffix is the typical duration of the activity. Instead of one set of activity parameters for every type and
+ * duration, the config only holds one set per base type. The typical duration is parsed from the activity type once
+ * per distinct type and then taken from a cache.
+ */
+public final class ActivityTypes {
+
+    private static final Pattern DURATION_SUFFIX = Pattern.compile("^(.+)_([0-9]+(\\.[0-9]+)?)$");
+    private static final Map<String, ActivityType> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Typical duration of base types which are used without a suffix. All activities of the scenario have a suffix, so
+     * this is only a fallback.
+     */
+    private static final double DEFAULT_TYPICAL_DURATION = 3600;
+
+    private ActivityTypes() {
+    }
+
+    /**
+     * @return the base type and the typical duration of the activity type. The duration is NaN if the type has no
+     * duration suffix.
+     */
+    public static ActivityType parse(String activityType) {
+        return cache.computeIfAbsent(activityType, type -> {
+            var matcher = DURATION_SUFFIX.matcher(type);
+            if (!matcher.matches()) return new ActivityType(type, Double.NaN);
+            return new ActivityType(matcher.group(1), Double.parseDouble(matcher.group(2)));
+        });
+    }
+
+    /**
+     * @return the activity type without the duration suffix
+     */
+    public static String getBaseType(String activityType) {
+        return parse(activityType).getBaseType();
+    }
+
+    /**
+     * Adds the activity parameters of the base types of the scenario. Their typical duration is replaced by the duration
+     * of each activity by {@link DurationScoringParametersForPerson}.
+     */
+    public static void configure(PlanCalcScoreConfigGroup config) {
+
+        for (var type : new String[]{"educ_higher", "educ_kiga", "educ_other", "educ_primary", "educ_secondary",
+                "educ_tertiary", "errands", "home", "visit"}) {
+            config.addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams(type).setTypicalDuration(DEFAULT_TYPICAL_DURATION));
+        }
+
+        config.addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("work").setTypicalDuration(DEFAULT_TYPICAL_DURATION)
+                .setOpeningTime(6. * 3600.).setClosingTime(20. * 3600.));
+        config.addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("business").setTypicalDuration(DEFAULT_TYPICAL_DURATION)
+                .setOpeningTime(6. * 3600.).setClosingTime(20. * 3600.));
+        config.addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("leisure").setTypicalDuration(DEFAULT_TYPICAL_DURATION)
+                .setOpeningTime(9. * 3600.).setClosingTime(27. * 3600.));
+        config.addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("shop_daily").setTypicalDuration(DEFAULT_TYPICAL_DURATION)
+                .setOpeningTime(8. * 3600.).setClosingTime(20. * 3600.));
+        config.addActivityParams(new PlanCalcScoreConfigGroup.ActivityParams("shop_other").setTypicalDuration(DEFAULT_TYPICAL_DURATION)
+                .setOpeningTime(8. * 3600.).setClosingTime(20. * 3600.));
+    }
+
+    public static final class ActivityType {
+
+        private final String baseType;
+        private final double typicalDuration;
+
+        private ActivityType(String baseType, double typicalDuration) {
+            this.baseType = baseType;
+            this.typicalDuration = typicalDuration;
+        }
+
+        public String getBaseType() {
+            return baseType;
+        }
+
+        public double getTypicalDuration() {
+            return typicalDuration;
+        }
+
+        public boolean hasTypicalDuration() {
+            return !Double.isNaN(typicalDuration);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.matsim.velbert.scoring;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.scoring.functions.ActivityUtilityParameters;
+import org.matsim.core.scoring.functions.ScoringParameters;
+import org.matsim.core.scoring.functions.ScoringParametersForPerson;
+
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Scoring parameters with activity parameters for every {@code <type>_<seconds>} activity type of the population. Each
+ * of them is derived from the parameters of its base type in the config, with the typical duration from the suffix.
+ * <p>
+ * Parameters are built once per subpopulation and shared by all its persons, so scoring looks up the parameters of an
+ * activity in a single hash map. The activity types are collected from the population when the parameters are first
+ * needed. If a plan brings up a new type later, the parameters of its subpopulation are built again.
+ */
+public class DurationScoringParametersForPerson implements ScoringParametersForPerson {
+
+    private static final Logger log = LogManager.getLogger(DurationScoringParametersForPerson.class);
+
+    private final Scenario scenario;
+    private final PlanCalcScoreConfigGroup scoringConfig;
+
+    private final Set<String> activityTypes = new HashSet<>();
+    private final Map<String, ScoringParameters> parametersBySubpopulation = new HashMap<>();
+    private boolean isInitialized = false;
+
+    @Inject
+    DurationScoringParametersForPerson(Scenario scenario) {
+        this.scenario = scenario;
+        this.scoringConfig = scenario.getConfig().planCalcScore();
+    }
+
+    @Override
+    public synchronized ScoringParameters getScoringParameters(Person person) {
+
+        if (!isInitialized) {
+            for (var p : scenario.getPopulation().getPersons().values()) {
+                for (var plan : p.getPlans()) {
+                    addActivityTypes(plan);
+                }
+            }
+            log.info("Found " + activityTypes.size() + " distinct activity types in the population");
+            isInitialized = true;
+        }
+
+        // replanning may come up with activity types which were not in the initial plans
+        if (addActivityTypes(person.getSelectedPlan())) parametersBySubpopulation.clear();
+
+        return parametersBySubpopulation.computeIfAbsent(PopulationUtils.getSubpopulation(person), this::createParameters);
+    }
+
+    private boolean addActivityTypes(Plan plan) {
+
+        if (plan == null) return false;
+
+        var changed = false;
+        for (var element : plan.getPlanElements()) {
+            if (element instanceof Activity) changed |= activityTypes.add(((Activity) element).getType());
+        }
+        return changed;
+    }
+
+    private ScoringParameters createParameters(String subpopulation) {
+
+        var parameterSet = scoringConfig.getScoringParameters(subpopulation);
+        var builder = new ScoringParameters.Builder(scoringConfig, parameterSet, scenario.getConfig().scenario());
+
+        for (var type : activityTypes) {
+
+            // types which are configured as they are, e.g. stage activities, keep their parameters
+            if (parameterSet.getActivityParams(type) != null) continue;
+
+            var activityType = ActivityTypes.parse(type);
+            var baseParams = parameterSet.getActivityParams(activityType.getBaseType());
+            if (baseParams == null || !activityType.hasTypicalDuration()) continue;
+
+            builder.setActivityParameters(type, new ActivityUtilityParameters.Builder(withTypicalDuration(baseParams, type, activityType.getTypicalDuration())));
+        }
+        return builder.build();
+    }
+
+    private static PlanCalcScoreConfigGroup.ActivityParams withTypicalDuration(PlanCalcScoreConfigGroup.ActivityParams base, String type, double typicalDuration) {
+
+        var params = new PlanCalcScoreConfigGroup.ActivityParams(type);
+        params.setTypicalDuration(typicalDuration);
+        params.setTypicalDurationScoreComputation(base.getTypicalDurationScoreComputation());
+        params.setScoringThisActivityAtAll(base.isScoringThisActivityAtAll());
+        params.setPriority(base.getPriority());
+        base.getOpeningTime().ifDefined(params::setOpeningTime);
+        base.getClosingTime().ifDefined(params::setClosingTime);
+        base.getLatestStartTime().ifDefined(params::setLatestStartTime);
+        base.getEarliestEndTime().ifDefined(params::setEarliestEndTime);
+        base.getMinimalDuration().ifDefined(params::setMinimalDuration);
+        return params;
+    }
+}
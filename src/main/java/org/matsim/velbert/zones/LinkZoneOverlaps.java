@@ -0,0 +1,334 @@
+package org.matsim.velbert.zones;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.TopologyException;
+import org.locationtech.jts.io.WKBWriter;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The share of the length of every link which lies in each zone. Unlike {@link LinkZones}, which only looks at the
+ * coordinate of a link, long links on the border of a zone are split between the zones they cross. The straight line
+ * from the from node to the to node is intersected with the candidate zones of the spatial index, in parallel over all
+ * links.
+ * <p>
+ * The fractions are kept in compressed rows: the entries of link {@code i} are at {@code offsets[i]} until
+ * {@code offsets[i + 1]} in the zone and fraction columns. Most links lie in one zone or in none, so this needs a few
+ * bytes per link.
+ * <p>
+ * The table can be stored next to the network with {@link #load(Network, ZoneLayer, Path)}. The file holds a
+ * fingerprint of the link geometries and of the ids, order and shapes of the zones, and is computed again if either
+ * changed. Zones are stored by their index in the layer, which the fingerprint guarantees to be the same.
+ * <p>
+ * Postal code areas from OSM often contain invalid polygons, for which the intersection with a link fails. Such zones
+ * are repaired with a zero-width buffer once and the link is intersected with the repaired geometry.
+ */
+public class LinkZoneOverlaps {
+
+    private static final Logger log = LogManager.getLogger(LinkZoneOverlaps.class);
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private static final int MAGIC = 0x4c5a4f56;
+    private static final int VERSION = 2;
+
+    private final ZoneLayer zones;
+    private final int[] offsets;
+    private final int[] zoneIndices;
+    private final float[] fractions;
+
+    private LinkZoneOverlaps(ZoneLayer zones, int[][] zonesByLink, float[][] fractionsByLink) {
+
+        this.zones = zones;
+        this.offsets = new int[zonesByLink.length + 1];
+        for (var linkIndex = 0; linkIndex < zonesByLink.length; linkIndex++) {
+            var size = zonesByLink[linkIndex] == null ? 0 : zonesByLink[linkIndex].length;
+            offsets[linkIndex + 1] = offsets[linkIndex] + size;
+        }
+
+        this.zoneIndices = new int[offsets[zonesByLink.length]];
+        this.fractions = new float[offsets[zonesByLink.length]];
+        for (var linkIndex = 0; linkIndex < zonesByLink.length; linkIndex++) {
+            if (zonesByLink[linkIndex] == null) continue;
+            System.arraycopy(zonesByLink[linkIndex], 0, zoneIndices, offsets[linkIndex], zonesByLink[linkIndex].length);
+            System.arraycopy(fractionsByLink[linkIndex], 0, fractions, offsets[linkIndex], fractionsByLink[linkIndex].length);
+        }
+    }
+
+    /**
+     * Intersects all links of the network with the zones.
+     */
+    public static LinkZoneOverlaps compute(Network network, ZoneLayer zones) {
+
+        var start = System.currentTimeMillis();
+        var numberOfLinks = Id.getNumberOfIds(Link.class);
+        var zonesByLink = new int[numberOfLinks][];
+        var fractionsByLink = new float[numberOfLinks][];
+        var repairedZones = new ConcurrentHashMap<Integer, Geometry>();
+
+        // every link writes its own rows only, so they can be filled from multiple threads
+        network.getLinks().values().parallelStream().forEach(link -> {
+            var linkZones = new ArrayList<Integer>(2);
+            var linkFractions = new ArrayList<Float>(2);
+            computeOverlaps(link, zones, repairedZones, linkZones, linkFractions);
+            if (linkZones.isEmpty()) return;
+
+            var index = link.getId().index();
+            zonesByLink[index] = linkZones.stream().mapToInt(Integer::intValue).toArray();
+            fractionsByLink[index] = new float[linkFractions.size()];
+            for (var i = 0; i < linkFractions.size(); i++) {
+                fractionsByLink[index][i] = linkFractions.get(i);
+            }
+        });
+
+        var result = new LinkZoneOverlaps(zones, zonesByLink, fractionsByLink);
+        log.info("Intersected " + network.getLinks().size() + " links with " + zones.size() + " zones in " + (System.currentTimeMillis() - start) + "ms. "
+                + result.zoneIndices.length + " link zone pairs.");
+        return result;
+    }
+
+    /**
+     * Reads the table from the file if it was computed for the same links and zones. Otherwise, the table is computed
+     * and written to the file.
+     */
+    public static LinkZoneOverlaps load(Network network, ZoneLayer zones, Path filename) throws IOException {
+
+        var fingerprint = getFingerprint(network, zones);
+        if (Files.exists(filename)) {
+            var result = read(filename, fingerprint, zones);
+            if (result != null) {
+                log.info("Read link zone overlaps from " + filename);
+                return result;
+            }
+            log.info("Link zone overlaps in " + filename + " are outdated");
+        }
+
+        var result = compute(network, zones);
+        result.write(filename, fingerprint);
+        return result;
+    }
+
+    /**
+     * @return the file for the overlaps of the network with a zone layer, next to the network file
+     */
+    public static Path getFilename(Path networkFile, String layerName) {
+        return networkFile.resolveSibling(networkFile.getFileName() + "." + layerName + ".overlaps");
+    }
+
+    public ZoneLayer getZones() {
+        return zones;
+    }
+
+    /**
+     * @return the share of the length of the link which lies in the zone
+     */
+    public double getFraction(Id<Link> linkId, int zoneIndex) {
+
+        var linkIndex = linkId.index();
+        if (linkIndex + 1 >= offsets.length) return 0;
+
+        for (var i = offsets[linkIndex]; i < offsets[linkIndex + 1]; i++) {
+            if (zoneIndices[i] == zoneIndex) return fractions[i];
+        }
+        return 0;
+    }
+
+    /**
+     * @return the indices of the links of which at least the given share of their length lies in the zones. An id
+     * selects all zones of the layer with this id.
+     */
+    public BitSet getLinks(Collection<String> zoneIds, double minFraction) {
+
+        // an id may have more than one feature, e.g. a postal code area made of several polygons
+        var selectedZones = new BitSet(zones.size());
+        for (var zoneIndex = 0; zoneIndex < zones.size(); zoneIndex++) {
+            if (zoneIds.contains(zones.getId(zoneIndex))) selectedZones.set(zoneIndex);
+        }
+
+        var result = new BitSet(offsets.length - 1);
+        for (var linkIndex = 0; linkIndex < offsets.length - 1; linkIndex++) {
+            var fraction = 0.;
+            for (var i = offsets[linkIndex]; i < offsets[linkIndex + 1]; i++) {
+                if (selectedZones.get(zoneIndices[i])) fraction += fractions[i];
+            }
+            // a small tolerance, since the fractions of a link which lies completely in the zones may not add up to 1 exactly
+            if (fraction > 0 && fraction >= minFraction - 1e-6) result.set(linkIndex);
+        }
+        return result;
+    }
+
+    private static void computeOverlaps(Link link, ZoneLayer zones, Map<Integer, Geometry> repairedZones,
+                                        ArrayList<Integer> linkZones, ArrayList<Float> linkFractions) {
+
+        var from = link.getFromNode().getCoord();
+        var to = link.getToNode().getCoord();
+        var line = geometryFactory.createLineString(new Coordinate[]{new Coordinate(from.getX(), from.getY()), new Coordinate(to.getX(), to.getY())});
+        var length = line.getLength();
+
+        // links without a length lie entirely in the zone of their nodes
+        if (length == 0) {
+            var zoneIndex = zones.getZoneIndex(from);
+            if (zoneIndex >= 0) {
+                linkZones.add(zoneIndex);
+                linkFractions.add(1f);
+            }
+            return;
+        }
+
+        for (var candidate : zones.query(line.getEnvelopeInternal())) {
+            var zone = zones.getGeometry(candidate);
+            double fraction;
+            if (zone.containsProperly(line)) {
+                fraction = 1;
+            } else if (zone.intersects(line)) {
+                fraction = intersect(zone.getGeometry(), candidate, line, repairedZones).getLength() / length;
+            } else {
+                continue;
+            }
+            if (fraction > 0) {
+                linkZones.add(candidate);
+                linkFractions.add((float) fraction);
+            }
+        }
+    }
+
+    private static Geometry intersect(Geometry zone, int zoneIndex, LineString line, Map<Integer, Geometry> repairedZones) {
+
+        var repaired = repairedZones.get(zoneIndex);
+        if (repaired != null) return repaired.intersection(line);
+
+        try {
+            return zone.intersection(line);
+        } catch (TopologyException e) {
+            repaired = repairedZones.computeIfAbsent(zoneIndex, key -> {
+                log.warn("Zone " + key + " has an invalid geometry (" + e.getMessage() + "). Intersecting links with a repaired geometry.");
+                return zone.buffer(0);
+            });
+            return repaired.intersection(line);
+        }
+    }
+
+    private void write(Path filename, long fingerprint) throws IOException {
+
+        var tempFile = filename.resolveSibling(filename.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+
+            // link indices differ between runs, so rows are stored by link id
+            var numberOfRows = 0;
+            for (var linkIndex = 0; linkIndex < offsets.length - 1; linkIndex++) {
+                if (offsets[linkIndex + 1] > offsets[linkIndex]) numberOfRows++;
+            }
+            out.writeInt(numberOfRows);
+            for (var linkIndex = 0; linkIndex < offsets.length - 1; linkIndex++) {
+                var size = offsets[linkIndex + 1] - offsets[linkIndex];
+                if (size == 0) continue;
+
+                out.writeUTF(Id.get(linkIndex, Link.class).toString());
+                out.writeShort(size);
+                for (var i = offsets[linkIndex]; i < offsets[linkIndex + 1]; i++) {
+                    // ids are not unique, e.g. for postal code areas with several polygons. The fingerprint covers the
+                    // order of the zones, so the index identifies the zone.
+                    out.writeInt(zoneIndices[i]);
+                    out.writeFloat(fractions[i]);
+                }
+            }
+        }
+        Files.move(tempFile, filename, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Wrote link zone overlaps to " + filename);
+    }
+
+    private static LinkZoneOverlaps read(Path filename, long fingerprint, ZoneLayer zones) throws IOException {
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(filename)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != fingerprint) return null;
+
+            var numberOfRows = in.readInt();
+            var linkIds = new ArrayList<Id<Link>>(numberOfRows);
+            var rowZones = new ArrayList<int[]>(numberOfRows);
+            var rowFractions = new ArrayList<float[]>(numberOfRows);
+            for (var row = 0; row < numberOfRows; row++) {
+                linkIds.add(Id.createLinkId(in.readUTF()));
+                var size = in.readShort();
+                var linkZones = new int[size];
+                var linkFractions = new float[size];
+                for (var i = 0; i < size; i++) {
+                    linkZones[i] = in.readInt();
+                    linkFractions[i] = in.readFloat();
+                }
+                rowZones.add(linkZones);
+                rowFractions.add(linkFractions);
+            }
+
+            var numberOfLinks = Id.getNumberOfIds(Link.class);
+            var zonesByLink = new int[numberOfLinks][];
+            var fractionsByLink = new float[numberOfLinks][];
+            for (var row = 0; row < numberOfRows; row++) {
+                zonesByLink[linkIds.get(row).index()] = rowZones.get(row);
+                fractionsByLink[linkIds.get(row).index()] = rowFractions.get(row);
+            }
+            return new LinkZoneOverlaps(zones, zonesByLink, fractionsByLink);
+        }
+    }
+
+    /**
+     * @return a hash over the ids and node coordinates of all links and the ids and geometries of all zones in their
+     * order
+     */
+    private static long getFingerprint(Network network, ZoneLayer zones) {
+
+        var hash = 17L;
+        for (var link : network.getLinks().values()) {
+            // links are hashed independently and summed up, since the order of the links may differ between runs
+            var linkHash = (long) link.getId().toString().hashCode();
+            linkHash = 31 * linkHash + Double.hashCode(link.getFromNode().getCoord().getX());
+            linkHash = 31 * linkHash + Double.hashCode(link.getFromNode().getCoord().getY());
+            linkHash = 31 * linkHash + Double.hashCode(link.getToNode().getCoord().getX());
+            linkHash = 31 * linkHash + Double.hashCode(link.getToNode().getCoord().getY());
+            hash += linkHash * 0x9e3779b97f4a7c15L;
+        }
+        return 31 * hash + getZonesFingerprint(zones);
+    }
+
+    private static long getZonesFingerprint(ZoneLayer zones) {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        var wkbWriter = new WKBWriter();
+        for (var zoneIndex = 0; zoneIndex < zones.size(); zoneIndex++) {
+            digest.update(zones.getId(zoneIndex).getBytes(StandardCharsets.UTF_8));
+            digest.update(wkbWriter.write(zones.getGeometry(zoneIndex).getGeometry()));
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+}
@@ -0,0 +1,116 @@
+package org.matsim.velbert.zones;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The zone of every link of a network, by the coordinate of the link. Links are classified in parallel. Links outside
+ * the envelope of the layer are rejected without a query, the others go through the spatial index of the
+ * {@link ZoneLayer}.
+ * <p>
+ * Classifications are cached per network and zone layer instance, so several policies or analyses on the same
+ * network and zones only classify once. The links are classified again once the set of links of the network has
+ * changed, links which were moved in the meantime are not detected.
+ */
+public class LinkZones {
+
+    private static final Logger log = LogManager.getLogger(LinkZones.class);
+
+    private static final Map<Network, Map<ZoneLayer, LinkZones>> cache = new WeakHashMap<>();
+
+    private final ZoneLayer zones;
+    private final int[] zoneIndices;
+    private final BitSet classifiedLinks = new BitSet();
+
+    private LinkZones(Network network, ZoneLayer zones) {
+
+        this.zones = zones;
+        this.zoneIndices = new int[Id.getNumberOfIds(Link.class)];
+        Arrays.fill(zoneIndices, -1);
+        for (var linkId : network.getLinks().keySet()) {
+            classifiedLinks.set(linkId.index());
+        }
+
+        var envelope = zones.getEnvelope();
+        // every link writes its own slot only, so the array can be filled from multiple threads
+        network.getLinks().values().parallelStream().forEach(link -> {
+            var coord = link.getCoord();
+            if (envelope.contains(coord.getX(), coord.getY()))
+                zoneIndices[link.getId().index()] = zones.getZoneIndex(coord);
+        });
+    }
+
+    /**
+     * @return the cached classification of the links of the network, or a new one
+     */
+    public static LinkZones classify(Network network, ZoneLayer zones) {
+
+        synchronized (cache) {
+            var byLayer = cache.computeIfAbsent(network, key -> new WeakHashMap<>());
+            var result = byLayer.get(zones);
+            if (result == null || !result.isUpToDate(network)) {
+                var start = System.currentTimeMillis();
+                result = new LinkZones(network, zones);
+                log.info("Classified " + network.getLinks().size() + " links into " + zones.size() + " zones in " + (System.currentTimeMillis() - start) + "ms");
+                byLayer.put(zones, result);
+            }
+            return result;
+        }
+    }
+
+    public ZoneLayer getZones() {
+        return zones;
+    }
+
+    /**
+     * @return index of the zone of the link, or -1 if the link is outside all zones
+     */
+    public int getZoneIndex(Id<Link> linkId) {
+        var index = linkId.index();
+        return index < zoneIndices.length ? zoneIndices[index] : -1;
+    }
+
+    /**
+     * @return the indices of the links which lie in one of the zones. An id selects all zones of the layer with this id.
+     */
+    public BitSet getLinks(Collection<String> zoneIds) {
+
+        // an id may have more than one feature, e.g. a postal code area made of several polygons
+        var selectedZones = new BitSet(zones.size());
+        for (var zoneIndex = 0; zoneIndex < zones.size(); zoneIndex++) {
+            if (zoneIds.contains(zones.getId(zoneIndex))) selectedZones.set(zoneIndex);
+        }
+
+        var result = new BitSet(zoneIndices.length);
+        for (var linkIndex = 0; linkIndex < zoneIndices.length; linkIndex++) {
+            var zoneIndex = zoneIndices[linkIndex];
+            if (zoneIndex >= 0 && selectedZones.get(zoneIndex)) result.set(linkIndex);
+        }
+        return result;
+    }
+
+    /**
+     * @return the indices of the links which lie in any zone of the layer
+     */
+    public BitSet getLinks() {
+        return getLinks(zones.getIds());
+    }
+
+    private boolean isUpToDate(Network network) {
+
+        if (network.getLinks().size() != classifiedLinks.cardinality()) return false;
+        for (var linkId : network.getLinks().keySet()) {
+            if (!classifiedLinks.get(linkId.index())) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,35 @@
+package org.matsim.velbert.zones;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Postal code (PLZ) areas of Germany, transformed into the CRS of the scenario. Zones are identified by their postal code.
+ * The shape file is only downloaded once, later runs read the zones from the {@link ZoneStore}.
+ */
+public final class PostalCodeZones {
+
+    public static final String SHAPE_FILE = "https://svn.vsp.tu-berlin.de/repos/public-svn/matsim/scenarios/countries/de/velbert/velbert-v1.0/shapes/Postleitzahlengebiete-shp/OSM_PLZ_072019.shp";
+    public static final Set<String> VELBERT = Set.of("42551", "42549", "42555", "42553");
+
+    private static final String ID_ATTRIBUTE = "plz";
+    private static final String SHAPE_FILE_CRS = "EPSG:3857";
+    private static final String SCENARIO_CRS = "EPSG:25832";
+
+    private PostalCodeZones() {
+    }
+
+    /**
+     * Reads all postal code areas. Select single zones with {@link ZoneLayer#subset(Set)}.
+     */
+    public static ZoneLayer readAll() throws IOException {
+        return ZoneStore.getDefault().load(SHAPE_FILE, ID_ATTRIBUTE, SHAPE_FILE_CRS, SCENARIO_CRS, null);
+    }
+
+    /**
+     * Reads the postal code areas with the given codes only.
+     */
+    public static ZoneLayer read(Set<String> postalCodes) throws IOException {
+        return ZoneStore.getDefault().load(SHAPE_FILE, ID_ATTRIBUTE, SHAPE_FILE_CRS, SCENARIO_CRS, postalCodes);
+    }
+}
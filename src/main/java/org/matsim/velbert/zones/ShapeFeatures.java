@@ -0,0 +1,106 @@
+package org.matsim.velbert.zones;
+
+import org.geotools.data.FileDataStoreFinder;
+import org.geotools.data.Query;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Streams the features of a shape file through a GeoTools query. Attribute and bounding box filters are handed to the
+ * data store, which evaluates them while reading, so features which don't match are never collected. The bounding box
+ * can use the spatial index of the shape file if there is one. Unlike
+ * {@link org.matsim.core.utils.gis.ShapeFileReader#getAllFeatures(String)} this only holds one feature at a time.
+ */
+public final class ShapeFeatures {
+
+    private static final FilterFactory2 filterFactory = CommonFactoryFinder.getFilterFactory2();
+
+    private ShapeFeatures() {
+    }
+
+    /**
+     * @return a filter which accepts features whose attribute equals one of the values
+     */
+    public static Filter attributeIn(String attribute, Collection<String> values) {
+
+        var property = filterFactory.property(attribute);
+        List<Filter> filters = new ArrayList<>(values.size());
+        for (var value : values) {
+            filters.add(filterFactory.equals(property, filterFactory.literal(value)));
+        }
+        return filters.size() == 1 ? filters.get(0) : filterFactory.or(filters);
+    }
+
+    /**
+     * @param source url or path of the shape file
+     * @param filter filter on the attributes, or {@link Filter#INCLUDE}
+     * @param bounds only features intersecting these bounds, in the CRS of the shape file, or {@code null} for all
+     */
+    public static void forEach(String source, Filter filter, Envelope bounds, Consumer<SimpleFeature> consumer) throws IOException {
+
+        var store = FileDataStoreFinder.getDataStore(toUrl(source));
+        if (store == null) throw new IOException("Can't read shape file " + source);
+
+        try {
+            if (store instanceof ShapefileDataStore) ((ShapefileDataStore) store).setCharset(StandardCharsets.UTF_8);
+
+            var schema = store.getSchema();
+            if (bounds != null) {
+                var geometry = filterFactory.property(schema.getGeometryDescriptor().getLocalName());
+                var box = filterFactory.bbox(geometry, new ReferencedEnvelope(bounds, schema.getCoordinateReferenceSystem()));
+                filter = filter == Filter.INCLUDE ? box : filterFactory.and(filter, box);
+            }
+
+            try (var features = store.getFeatureSource().getFeatures(new Query(schema.getTypeName(), filter)).features()) {
+                while (features.hasNext()) {
+                    consumer.accept(features.next());
+                }
+            }
+        } finally {
+            store.dispose();
+        }
+    }
+
+    /**
+     * @return the default geometries of the matching features
+     */
+    public static List<Geometry> readGeometries(String source, Filter filter, Envelope bounds) throws IOException {
+        var result = new ArrayList<Geometry>();
+        forEach(source, filter, bounds, feature -> result.add((Geometry) feature.getDefaultGeometry()));
+        return result;
+    }
+
+    /**
+     * @param idAttribute attribute which holds the id of a zone, or {@code null} to use the feature ids
+     */
+    public static ZoneLayer readZones(String source, String idAttribute, Filter filter, Envelope bounds) throws IOException {
+
+        var ids = new ArrayList<String>();
+        var geometries = new ArrayList<Geometry>();
+        forEach(source, filter, bounds, feature -> {
+            ids.add(idAttribute == null ? feature.getID() : String.valueOf(feature.getAttribute(idAttribute)));
+            geometries.add((Geometry) feature.getDefaultGeometry());
+        });
+        return new ZoneLayer(ids, geometries);
+    }
+
+    private static URL toUrl(String source) throws IOException {
+        return source.contains("://") ? URI.create(source).toURL() : Paths.get(source).toUri().toURL();
+    }
+}
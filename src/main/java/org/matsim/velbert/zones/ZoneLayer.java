@@ -0,0 +1,172 @@
+package org.matsim.velbert.zones;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.matsim.api.core.v01.Coord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of named zones, e.g. postal code areas. Point lookups go through an STRtree over the envelopes of the zones and
+ * only test the prepared geometries of the candidates. Once created, a layer can be queried from multiple threads.
+ * <p>
+ * A zone is one feature of the source. Several zones may share an id, e.g. a postal code area which consists of more
+ * than one polygon. Zone indices refer to single features, id indices to the distinct ids of the layer.
+ */
+public class ZoneLayer {
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private final List<String> ids;
+    private final List<PreparedGeometry> geometries;
+    private final List<String> distinctIds = new ArrayList<>();
+    private final Map<String, Integer> idIndexById = new HashMap<>();
+    private final Map<String, int[]> indicesById = new HashMap<>();
+    private final int[] idIndices;
+    private final STRtree index = new STRtree();
+
+    public ZoneLayer(List<String> ids, List<Geometry> geometries) {
+
+        if (ids.size() != geometries.size())
+            throw new IllegalArgumentException("Got " + ids.size() + " ids but " + geometries.size() + " geometries");
+
+        var factory = new PreparedGeometryFactory();
+        this.ids = List.copyOf(ids);
+        this.geometries = new ArrayList<>(geometries.size());
+        this.idIndices = new int[ids.size()];
+        for (var i = 0; i < geometries.size(); i++) {
+            var geometry = geometries.get(i);
+            var id = ids.get(i);
+            this.geometries.add(factory.create(geometry));
+            this.index.insert(geometry.getEnvelopeInternal(), i);
+
+            var idIndex = idIndexById.computeIfAbsent(id, key -> {
+                distinctIds.add(key);
+                return distinctIds.size() - 1;
+            });
+            this.idIndices[i] = idIndex;
+            var indices = indicesById.get(id);
+            indices = indices == null ? new int[1] : Arrays.copyOf(indices, indices.length + 1);
+            indices[indices.length - 1] = i;
+            this.indicesById.put(id, indices);
+        }
+        // build the tree now, so that concurrent queries don't race for building it lazily
+        this.index.build();
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public String getId(int zoneIndex) {
+        return ids.get(zoneIndex);
+    }
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    /**
+     * @return the indices of all zones with the given id, empty if there is no such zone
+     */
+    public int[] getIndices(String id) {
+        var indices = indicesById.get(id);
+        return indices == null ? new int[0] : indices.clone();
+    }
+
+    /**
+     * @return the ids of the layer, every id once, in the order of their first zone
+     */
+    public List<String> getDistinctIds() {
+        return Collections.unmodifiableList(distinctIds);
+    }
+
+    /**
+     * @return the index of the id of the zone within {@link #getDistinctIds()}
+     */
+    public int getIdIndex(int zoneIndex) {
+        return idIndices[zoneIndex];
+    }
+
+    /**
+     * @return the index of the id within {@link #getDistinctIds()} or -1 if there is no zone with this id
+     */
+    public int getIdIndex(String id) {
+        return idIndexById.getOrDefault(id, -1);
+    }
+
+    public PreparedGeometry getGeometry(int zoneIndex) {
+        return geometries.get(zoneIndex);
+    }
+
+    public List<PreparedGeometry> getGeometries() {
+        return Collections.unmodifiableList(geometries);
+    }
+
+    public Envelope getEnvelope() {
+        var result = new Envelope();
+        for (var geometry : geometries) {
+            result.expandToInclude(geometry.getGeometry().getEnvelopeInternal());
+        }
+        return result;
+    }
+
+    /**
+     * @return a new layer with the zones of this layer whose id is contained in the given set
+     */
+    public ZoneLayer subset(Set<String> zoneIds) {
+
+        var subsetIds = new ArrayList<String>();
+        var subsetGeometries = new ArrayList<Geometry>();
+        for (var i = 0; i < ids.size(); i++) {
+            if (zoneIds.contains(ids.get(i))) {
+                subsetIds.add(ids.get(i));
+                subsetGeometries.add(geometries.get(i).getGeometry());
+            }
+        }
+        return new ZoneLayer(subsetIds, subsetGeometries);
+    }
+
+    /**
+     * @return indices of the zones whose envelope intersects the given envelope
+     */
+    @SuppressWarnings("unchecked")
+    public List<Integer> query(Envelope envelope) {
+        return index.query(envelope);
+    }
+
+    public boolean contains(Coord coord) {
+        return getZoneIndex(coord.getX(), coord.getY()) >= 0;
+    }
+
+    public int getZoneIndex(Coord coord) {
+        return getZoneIndex(coord.getX(), coord.getY());
+    }
+
+    /**
+     * @return the index of a zone which covers the point or -1 if the point is outside all zones
+     */
+    public int getZoneIndex(double x, double y) {
+
+        @SuppressWarnings("unchecked")
+        List<Integer> candidates = index.query(new Envelope(x, x, y, y));
+        if (candidates.isEmpty()) return -1;
+
+        var point = geometryFactory.createPoint(new Coordinate(x, y));
+        for (var candidate : candidates) {
+            if (geometries.get(candidate).covers(point)) return candidate;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,209 @@
+package org.matsim.velbert.zones;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import org.opengis.filter.Filter;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Reads zones from a shape file and keeps the reprojected geometries in a local cache. The cache file is named by a hash
+ * of the source, the id attribute, the selected zone ids and both CRS, so changing any of them reads the shape file
+ * again. A local source file is also identified by its size and modification time.
+ * <p>
+ * Cache files hold the zone ids and the geometries as WKB. Loading them needs neither the network nor GeoTools' CRS
+ * database. A broken cache file is ignored and written again.
+ */
+public class ZoneStore {
+
+    private static final Logger log = LogManager.getLogger(ZoneStore.class);
+
+    private static final int MAGIC = 0x5a4f4e45;
+    private static final int VERSION = 1;
+
+    /**
+     * System property to override the cache directory.
+     */
+    public static final String CACHE_DIRECTORY_PROPERTY = "velbert.zoneCache";
+
+    private final Path cacheDirectory;
+
+    public ZoneStore(Path cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @return a store in the directory given by {@value #CACHE_DIRECTORY_PROPERTY} or in ~/.cache/velbert-zones
+     */
+    public static ZoneStore getDefault() {
+        var directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        return new ZoneStore(directory != null ? Paths.get(directory) : Paths.get(System.getProperty("user.home"), ".cache", "velbert-zones"));
+    }
+
+    /**
+     * @param source      url or path of the shape file
+     * @param idAttribute attribute which holds the zone id
+     * @param zoneIds     ids of the zones to keep, or {@code null} to keep all zones
+     */
+    public ZoneLayer load(String source, String idAttribute, String sourceCrs, String targetCrs, Set<String> zoneIds) throws IOException {
+
+        var cacheFile = cacheDirectory.resolve(getKey(source, idAttribute, sourceCrs, targetCrs, zoneIds) + ".zones");
+        if (Files.exists(cacheFile)) {
+            try {
+                var zones = readCache(cacheFile);
+                log.info("Read " + zones.size() + " zones from cache " + cacheFile);
+                return zones;
+            } catch (IOException | ParseException e) {
+                log.warn("Could not read zone cache " + cacheFile + ". Reading " + source + " instead.", e);
+            }
+        }
+
+        var zones = readShapeFile(source, idAttribute, sourceCrs, targetCrs, zoneIds);
+        try {
+            writeCache(cacheFile, zones);
+            log.info("Wrote " + zones.size() + " zones to cache " + cacheFile);
+        } catch (IOException e) {
+            // the zones are fine, they will just be read from the shape file again next time
+            log.warn("Could not write zone cache " + cacheFile, e);
+        }
+        return zones;
+    }
+
+    private static ZoneLayer readShapeFile(String source, String idAttribute, String sourceCrs, String targetCrs, Set<String> zoneIds) throws IOException {
+
+        log.info("Reading zones from " + source);
+
+        MathTransform transformation;
+        try {
+            transformation = CRS.findMathTransform(CRS.decode(sourceCrs), CRS.decode(targetCrs));
+        } catch (FactoryException e) {
+            throw new IllegalArgumentException("Can't transform from " + sourceCrs + " to " + targetCrs, e);
+        }
+
+        // selecting the zones is left to the shape file reader, so that unselected zones are never collected
+        var filter = zoneIds == null ? Filter.INCLUDE : ShapeFeatures.attributeIn(idAttribute, zoneIds);
+        var ids = new ArrayList<String>();
+        var geometries = new ArrayList<Geometry>();
+        ShapeFeatures.forEach(source, filter, null, feature -> {
+            ids.add(String.valueOf(feature.getAttribute(idAttribute)));
+            geometries.add(transform((Geometry) feature.getDefaultGeometry(), transformation));
+        });
+        return new ZoneLayer(ids, geometries);
+    }
+
+    private static ZoneLayer readCache(Path cacheFile) throws IOException, ParseException {
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a zone cache of version " + VERSION);
+
+            var size = in.readInt();
+            var reader = new WKBReader();
+            var ids = new ArrayList<String>(size);
+            var geometries = new ArrayList<Geometry>(size);
+            for (var i = 0; i < size; i++) {
+                ids.add(in.readUTF());
+                var wkb = new byte[in.readInt()];
+                in.readFully(wkb);
+                geometries.add(reader.read(wkb));
+            }
+            return new ZoneLayer(ids, geometries);
+        }
+    }
+
+    private static void writeCache(Path cacheFile, ZoneLayer zones) throws IOException {
+
+        Files.createDirectories(cacheFile.getParent());
+
+        // write to a temporary file first, so that concurrent runs never see a partial cache file
+        var tempFile = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+        try {
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(zones.size());
+
+                var writer = new WKBWriter();
+                for (var i = 0; i < zones.size(); i++) {
+                    var wkb = writer.write(zones.getGeometry(i).getGeometry());
+                    out.writeUTF(zones.getId(i));
+                    out.writeInt(wkb.length);
+                    out.write(wkb);
+                }
+            }
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static String getKey(String source, String idAttribute, String sourceCrs, String targetCrs, Set<String> zoneIds) {
+
+        var key = new StringBuilder()
+                .append(source).append('\n')
+                .append(idAttribute).append('\n')
+                .append(sourceCrs).append('\n')
+                .append(targetCrs).append('\n')
+                .append(zoneIds == null ? "*" : String.join(",", new TreeSet<>(zoneIds))).append('\n');
+
+        // a local file may change under the same name
+        var uri = toUri(source);
+        if ("file".equals(uri.getScheme())) {
+            try {
+                var path = Paths.get(uri);
+                key.append(Files.size(path)).append('\n').append(Files.getLastModifiedTime(path).toMillis());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        try {
+            var hash = MessageDigest.getInstance("SHA-256").digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            var result = new StringBuilder();
+            for (var i = 0; i < 12; i++) {
+                result.append(String.format("%02x", hash[i]));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static URI toUri(String source) {
+        return source.contains("://") ? URI.create(source) : Paths.get(source).toUri();
+    }
+
+    private static Geometry transform(Geometry geometry, MathTransform transform) {
+        try {
+            return JTS.transform(geometry, transform);
+        } catch (TransformException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
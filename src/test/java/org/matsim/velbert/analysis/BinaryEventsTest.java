@@ -0,0 +1,137 @@
+package org.matsim.velbert.analysis;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryEventsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Id<Person> person = Id.createPersonId("person");
+    private static final Id<Person> driver = Id.createPersonId("driver");
+    private static final Id<Link> link = Id.createLinkId("link");
+    private static final Id<Link> otherLink = Id.createLinkId("otherLink");
+    private static final Id<Vehicle> vehicle = Id.createVehicleId("vehicle");
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+
+        var events = List.of(
+                new ActivityEndEvent(21600, person, link, null, "home_43200.0", new Coord(1, 2)),
+                new PersonDepartureEvent(21600, person, link, "car", "car"),
+                new PersonEntersVehicleEvent(21600, person, vehicle),
+                new VehicleEntersTrafficEvent(21600, person, link, vehicle, "car", 1.0),
+                new LinkLeaveEvent(21610.5, vehicle, link),
+                new LinkEnterEvent(21610.5, vehicle, otherLink),
+                new VehicleLeavesTrafficEvent(21700, person, otherLink, vehicle, "car", 1.0),
+                new PersonLeavesVehicleEvent(21700, person, vehicle),
+                new PersonArrivalEvent(21700, person, otherLink, "car"),
+                new ActivityStartEvent(21700, person, otherLink, null, "work_28800.0", null),
+                new TransitDriverStartsEvent(25000, driver, vehicle, Id.create("line", TransitLine.class),
+                        Id.create("route", TransitRoute.class), Id.create("departure", Departure.class)));
+
+        var file = write(events);
+        var read = read(file);
+
+        assertEquals(events.size(), read.size());
+        for (var i = 0; i < events.size(); i++) {
+            assertEquals(events.get(i).getAttributes(), read.get(i).getAttributes());
+        }
+    }
+
+    @Test
+    public void skipsUnsupportedEvents() throws IOException {
+
+        var file = write(List.of(
+                new PersonDepartureEvent(0, person, link, "car", "car"),
+                new PersonStuckEvent(10, person, link, "car"),
+                new PersonArrivalEvent(20, person, link, "car")));
+        var read = read(file);
+
+        assertEquals(2, read.size());
+        assertTrue(read.get(0) instanceof PersonDepartureEvent);
+        assertTrue(read.get(1) instanceof PersonArrivalEvent);
+    }
+
+    @Test
+    public void skipsUnknownEventTypes() throws IOException {
+
+        var file = write(List.of(
+                new PersonDepartureEvent(0, person, link, "car", "car"),
+                new PersonArrivalEvent(20, person, link, "car")));
+
+        // the type column follows the header and the tables, its first byte is the type of the first event
+        long tablesLength;
+        try (var in = new DataInputStream(Files.newInputStream(file))) {
+            in.skipBytes(12);
+            tablesLength = in.readLong();
+        }
+        try (var out = new RandomAccessFile(file.toFile(), "rw")) {
+            out.seek(20 + tablesLength);
+            out.writeByte(99);
+        }
+
+        var read = read(file);
+        assertEquals(1, read.size());
+        assertTrue(read.get(0) instanceof PersonArrivalEvent);
+    }
+
+    @Test
+    public void readsTransitDriverWithoutRouteAndDeparture() throws IOException {
+
+        var file = write(List.of(new TransitDriverStartsEvent(0, driver, vehicle, Id.create("line", TransitLine.class), null, null)));
+        var read = read(file);
+
+        assertEquals(1, read.size());
+        var event = (TransitDriverStartsEvent) read.get(0);
+        assertEquals("line", event.getTransitLineId().toString());
+        assertNull(event.getTransitRouteId());
+        assertNull(event.getDepartureId());
+    }
+
+    private Path write(List<? extends Event> events) throws IOException {
+
+        var file = folder.getRoot().toPath().resolve("events.bin");
+        try (var writer = new BinaryEventsWriter(file)) {
+            for (var event : events) {
+                writer.handleEvent(event);
+            }
+        }
+        assertTrue(BinaryEventsReader.isBinaryEventsFile(file));
+        return file;
+    }
+
+    private static List<Event> read(Path file) {
+
+        var result = new ArrayList<Event>();
+        var manager = EventsUtils.createEventsManager();
+        manager.addHandler((BasicEventHandler) result::add);
+        new BinaryEventsReader(manager).readFile(file);
+        return result;
+    }
+}
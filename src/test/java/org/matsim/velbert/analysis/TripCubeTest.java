@@ -0,0 +1,218 @@
+package org.matsim.velbert.analysis;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.velbert.zones.ZoneLayer;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TripCubeTest {
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+    private static final double DELTA = 1e-9;
+
+    private HomeZones homeZones;
+    private Id<Person> inFirstA;
+    private Id<Person> inSecondA;
+    private Id<Person> inB;
+    private Id<Person> outside;
+
+    @Before
+    public void setUp() {
+
+        // zone "a" consists of two separate squares
+        var zones = new ZoneLayer(List.of("a", "b", "a"), List.of(square(0), square(100), square(200)));
+
+        var population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+        inFirstA = addPerson(population, "inFirstA", 10);
+        inSecondA = addPerson(population, "inSecondA", 210);
+        inB = addPerson(population, "inB", 110);
+        outside = addPerson(population, "outside", 310);
+        homeZones = HomeZones.compute(population, zones);
+    }
+
+    @Test
+    public void rollsUpModes() {
+
+        var cube = new TripCube(homeZones);
+        cube.add(trip(inFirstA, "car", 8 * 3600, "work_28800.0", 500));
+        cube.add(trip(inFirstA, "car", 17 * 3600, "home_43200.0", 2000));
+        cube.add(trip(inB, "bike", 9 * 3600, "work_28800.0", 4000));
+
+        assertEquals(3, cube.getTotalCount(), DELTA);
+        assertEquals(2, cube.getCount("car"), DELTA);
+        assertEquals(1, cube.getCount("bike"), DELTA);
+        assertEquals(0, cube.getCount("walk"), DELTA);
+
+        var byMode = cube.rollUp(TripCube.Dimension.MODE, TripCube.Slice.all());
+        assertEquals(2, byMode[cube.getIndex(TripCube.Dimension.MODE, "car")], DELTA);
+        assertEquals(1, byMode[cube.getIndex(TripCube.Dimension.MODE, "bike")], DELTA);
+    }
+
+    @Test
+    public void slicesByDistanceClassAndPurpose() {
+
+        var cube = new TripCube(homeZones);
+        cube.add(trip(inFirstA, "car", 8 * 3600, "work_28800.0", 500));
+        cube.add(trip(inFirstA, "car", 17 * 3600, "home_43200.0", 2000));
+        cube.add(trip(inB, "car", 9 * 3600, "work_28800.0", 2500));
+        cube.add(trip(inB, "walk", 12 * 3600, "shop_3600.0", 800));
+
+        assertEquals(1, cube.getCount("car", 0), DELTA);
+        assertEquals(2, cube.getCount("car", 1), DELTA);
+        assertEquals(2, cube.getCountForDistanceClass(0), DELTA);
+
+        // the duration suffix is removed from the purpose
+        var work = cube.getIndex(TripCube.Dimension.PURPOSE, "work");
+        var car = cube.getIndex(TripCube.Dimension.MODE, "car");
+        assertEquals(2, cube.getCount(TripCube.Slice.all().with(TripCube.Dimension.PURPOSE, work)), DELTA);
+        assertEquals(2, cube.getCount(TripCube.Slice.all().with(TripCube.Dimension.PURPOSE, work).with(TripCube.Dimension.MODE, car)), DELTA);
+        assertEquals(3000, cube.getDistanceSum(TripCube.Slice.all().with(TripCube.Dimension.PURPOSE, work)), DELTA);
+
+        var purposeByMode = cube.rollUp(TripCube.Dimension.PURPOSE, TripCube.Dimension.MODE, TripCube.Slice.all());
+        assertEquals(2, purposeByMode[work][car], DELTA);
+        assertEquals(1, purposeByMode[cube.getIndex(TripCube.Dimension.PURPOSE, "shop")][cube.getIndex(TripCube.Dimension.MODE, "walk")], DELTA);
+    }
+
+    @Test
+    public void countsLateDeparturesInLastHour() {
+
+        var cube = new TripCube(homeZones, null, 24);
+        cube.add(trip(inB, "car", 26 * 3600, "home_43200.0", 500));
+        cube.add(trip(inB, "car", 23.5 * 3600, "home_43200.0", 500));
+
+        var byHour = cube.rollUp(TripCube.Dimension.HOUR, TripCube.Slice.all());
+        assertEquals(24, byHour.length);
+        assertEquals(2, byHour[23], DELTA);
+    }
+
+    @Test
+    public void countsAllFeaturesOfAHomeZoneInOneEntry() {
+
+        var cube = new TripCube(homeZones);
+        cube.add(trip(inFirstA, "car", 8 * 3600, "work_28800.0", 500));
+        cube.add(trip(inSecondA, "car", 8 * 3600, "work_28800.0", 500));
+        cube.add(trip(inB, "car", 8 * 3600, "work_28800.0", 500));
+        cube.add(trip(outside, "car", 8 * 3600, "work_28800.0", 500));
+
+        // a, b and none
+        assertEquals(3, cube.size(TripCube.Dimension.HOME_ZONE));
+
+        var byHomeZone = cube.rollUp(TripCube.Dimension.HOME_ZONE, TripCube.Slice.all());
+        assertEquals(2, byHomeZone[cube.getIndex(TripCube.Dimension.HOME_ZONE, "a")], DELTA);
+        assertEquals(1, byHomeZone[cube.getIndex(TripCube.Dimension.HOME_ZONE, "b")], DELTA);
+        assertEquals(1, byHomeZone[cube.getIndex(TripCube.Dimension.HOME_ZONE, TripCube.NO_HOME_ZONE)], DELTA);
+    }
+
+    @Test
+    public void keepsCountsWhenPurposesAndModesGrow() {
+
+        var cube = new TripCube(homeZones);
+        for (var i = 0; i < 40; i++) {
+            cube.add(trip(inB, "mode" + (i % 12), 8 * 3600, "purpose" + i, 500));
+        }
+
+        assertEquals(40, cube.getTotalCount(), DELTA);
+        assertEquals(40, cube.size(TripCube.Dimension.PURPOSE));
+        assertEquals(12, cube.size(TripCube.Dimension.MODE));
+        assertEquals(4, cube.getCount("mode0"), DELTA);
+        assertEquals(1, cube.getCount(TripCube.Slice.all().with(TripCube.Dimension.PURPOSE, cube.getIndex(TripCube.Dimension.PURPOSE, "purpose39"))), DELTA);
+    }
+
+    @Test
+    public void mergesCubes() {
+
+        var first = new TripCube(homeZones);
+        first.add(trip(inFirstA, "car", 8 * 3600, "work_28800.0", 500));
+        first.add(trip(inB, "bike", 9 * 3600, "leisure_7200.0", 4000));
+
+        // the second cube sees modes and purposes in a different order
+        var second = new TripCube(homeZones);
+        second.add(trip(inB, "walk", 10 * 3600, "shop_3600.0", 300));
+        second.add(trip(inFirstA, "car", 8 * 3600, "work_28800.0", 500));
+
+        var merged = new TripCube(homeZones);
+        merged.add(first);
+        merged.add(second);
+
+        assertEquals(4, merged.getTotalCount(), DELTA);
+        assertEquals(2, merged.getCount("car"), DELTA);
+        var work = merged.getIndex(TripCube.Dimension.PURPOSE, "work");
+        assertEquals(2, merged.getCount(TripCube.Slice.all().with(TripCube.Dimension.PURPOSE, work)), DELTA);
+
+        merged.reset();
+        assertArrayEquals(new double[merged.size(TripCube.Dimension.MODE)], merged.rollUp(TripCube.Dimension.MODE, TripCube.Slice.all()), DELTA);
+    }
+
+    private static Id<Person> addPerson(Population population, String id, double x) {
+
+        var person = population.getFactory().createPerson(Id.createPersonId(id));
+        var plan = population.getFactory().createPlan();
+        plan.addActivity(population.getFactory().createActivityFromCoord("home_43200.0", new Coord(x, 10)));
+        person.addPlan(plan);
+        population.addPerson(person);
+        return person.getId();
+    }
+
+    private static TripRecord trip(Id<Person> personId, String mode, double departureTime, String endActivityType, double distance) {
+        return new TripRecord() {
+            @Override
+            public int getPersonIndex() {
+                return personId.index();
+            }
+
+            @Override
+            public String getMode() {
+                return mode;
+            }
+
+            @Override
+            public double getDepartureTime() {
+                return departureTime;
+            }
+
+            @Override
+            public String getEndActivityType() {
+                return endActivityType;
+            }
+
+            @Override
+            public double getStartX() {
+                return 0;
+            }
+
+            @Override
+            public double getStartY() {
+                return 0;
+            }
+
+            @Override
+            public double getEndX() {
+                return distance;
+            }
+
+            @Override
+            public double getEndY() {
+                return 0;
+            }
+        };
+    }
+
+    private static Geometry square(double x) {
+        return geometryFactory.createPolygon(new Coordinate[]{
+                new Coordinate(x, 0), new Coordinate(x + 50, 0), new Coordinate(x + 50, 50), new Coordinate(x, 50), new Coordinate(x, 0)
+        });
+    }
+}
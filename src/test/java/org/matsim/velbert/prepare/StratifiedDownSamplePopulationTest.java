@@ -0,0 +1,140 @@
+package org.matsim.velbert.prepare;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StratifiedDownSamplePopulationTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void keepsTheShareOfEveryStratum() {
+
+        var strata = strata(Map.of("x", 10, "y", 30, "z", 60));
+        var sampled = StratifiedDownSamplePopulation.select(all(strata), strata, 0.1, new Random(4711));
+
+        var sizes = countByStratum(sampled, strata);
+        assertEquals(10, sampled.size());
+        assertEquals(1, (int) sizes.get("x"));
+        assertEquals(3, (int) sizes.get("y"));
+        assertEquals(6, (int) sizes.get("z"));
+    }
+
+    @Test
+    public void doesNotAddUpRoundingErrors() {
+
+        // every stratum should get half a person
+        var strata = strata(Map.of("a", 5, "b", 5, "c", 5, "d", 5));
+        var sampled = StratifiedDownSamplePopulation.select(all(strata), strata, 0.1, new Random(4711));
+
+        assertEquals(2, sampled.size());
+        for (var size : countByStratum(sampled, strata).values()) {
+            assertTrue(size <= 1);
+        }
+    }
+
+    @Test
+    public void shortfallDoesNotInflateTheNextStratum() {
+
+        var strata = strata(Map.of("a", 50, "b", 50));
+
+        // only 10 persons of stratum a are left from the previous, larger sample
+        var candidates = new ArrayList<Integer>();
+        for (var i = 0; i < strata.length; i++) {
+            if (strata[i].equals("b") || candidates.size() < 10) candidates.add(i);
+        }
+        var sampled = StratifiedDownSamplePopulation.select(candidates, strata, 0.5, new Random(4711));
+
+        var sizes = countByStratum(sampled, strata);
+        assertEquals(10, (int) sizes.get("a"));
+        assertEquals(25, (int) sizes.get("b"));
+    }
+
+    @Test
+    public void selectsOnlyCandidates() {
+
+        var strata = strata(Map.of("a", 100));
+        var candidates = new ArrayList<Integer>();
+        for (var i = 0; i < strata.length; i += 2) {
+            candidates.add(i);
+        }
+        var sampled = StratifiedDownSamplePopulation.select(candidates, strata, 0.2, new Random(4711));
+
+        assertEquals(20, sampled.size());
+        assertTrue(candidates.containsAll(sampled));
+    }
+
+    @Test
+    public void weightsCorrectTheSampleShares() {
+
+        // x has a quarter of the input, but half of the sample
+        var strata = strata(Map.of("x", 10, "y", 30));
+        var sampled = new ArrayList<Integer>();
+        for (var i = 0; i < strata.length; i++) {
+            if (countByStratum(sampled, strata).getOrDefault(strata[i], 0) < 2) sampled.add(i);
+        }
+        var weights = StratifiedDownSamplePopulation.computeWeights(sampled, strata);
+
+        var sum = 0.;
+        for (var i = 0; i < weights.length; i++) {
+            assertEquals(strata[sampled.get(i)].equals("x") ? 0.5 : 1.5, weights[i], DELTA);
+            sum += weights[i];
+        }
+        assertEquals(weights.length, sum, DELTA);
+    }
+
+    @Test
+    public void mergesSmallStrataIntoCoarserOnes() {
+
+        List<String[]> keys = new ArrayList<>();
+        for (var i = 0; i < 10; i++) {
+            keys.add(new String[]{"z1|2|home-work-home", "z1|2", "z1", "all"});
+        }
+        keys.add(new String[]{"z1|2|home-shop-home", "z1|2", "z1", "all"});
+
+        var strata = StratifiedDownSamplePopulation.assignStrata(keys, 0.2);
+
+        assertEquals("0:z1|2|home-work-home", strata[0]);
+        assertEquals("3:all", strata[10]);
+    }
+
+    /**
+     * @return the stratum of every person, in the order of the given strata
+     */
+    private static String[] strata(Map<String, Integer> sizes) {
+
+        var result = new ArrayList<String>();
+        sizes.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> {
+                    for (var i = 0; i < entry.getValue(); i++) {
+                        result.add(entry.getKey());
+                    }
+                });
+        return result.toArray(new String[0]);
+    }
+
+    private static List<Integer> all(String[] strata) {
+        var result = new ArrayList<Integer>();
+        for (var i = 0; i < strata.length; i++) {
+            result.add(i);
+        }
+        return result;
+    }
+
+    private static Map<String, Integer> countByStratum(List<Integer> sampled, String[] strata) {
+        var result = new HashMap<String, Integer>();
+        for (var index : sampled) {
+            result.merge(strata[index], 1, Integer::sum);
+        }
+        return result;
+    }
+}
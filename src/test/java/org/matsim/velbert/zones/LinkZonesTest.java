@@ -0,0 +1,78 @@
+package org.matsim.velbert.zones;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LinkZonesTest {
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    @Test
+    public void selectsAllFeaturesOfAnId() {
+
+        // zone "a" consists of two separate squares
+        var zones = new ZoneLayer(List.of("a", "b", "a"), List.of(square(0, 0), square(100, 0), square(200, 0)));
+
+        var network = NetworkUtils.createNetwork();
+        var inFirstA = addLink(network, "inFirstA", 10);
+        var inB = addLink(network, "inB", 110);
+        var inSecondA = addLink(network, "inSecondA", 210);
+        var outside = addLink(network, "outside", 310);
+
+        var links = LinkZones.classify(network, zones).getLinks(Set.of("a"));
+
+        assertTrue(links.get(inFirstA.getId().index()));
+        assertTrue(links.get(inSecondA.getId().index()));
+        assertFalse(links.get(inB.getId().index()));
+        assertFalse(links.get(outside.getId().index()));
+        assertEquals(2, links.cardinality());
+    }
+
+    @Test
+    public void classifiesReplacedLinksAgain() {
+
+        var zones = new ZoneLayer(List.of("a"), List.of(square(0, 0)));
+
+        var network = NetworkUtils.createNetwork();
+        var first = addLink(network, "replacedFirst", 10);
+        assertEquals(0, LinkZones.classify(network, zones).getZoneIndex(first.getId()));
+
+        // same number of links as before, but another one
+        network.removeLink(first.getId());
+        var second = addLink(network, "replacedSecond", 20);
+        assertEquals(0, LinkZones.classify(network, zones).getZoneIndex(second.getId()));
+    }
+
+    private static Link addLink(Network network, String id, double x) {
+
+        var factory = network.getFactory();
+        var from = factory.createNode(Id.createNodeId(id + "-from"), new Coord(x, 10));
+        var to = factory.createNode(Id.createNodeId(id + "-to"), new Coord(x + 10, 10));
+        network.addNode(from);
+        network.addNode(to);
+
+        var link = factory.createLink(Id.createLinkId(id), from, to);
+        network.addLink(link);
+        return link;
+    }
+
+    private static Geometry square(double x, double y) {
+        return geometryFactory.createPolygon(new Coordinate[]{
+                new Coordinate(x, y), new Coordinate(x + 50, y), new Coordinate(x + 50, y + 50), new Coordinate(x, y + 50), new Coordinate(x, y)
+        });
+    }
+}